@@ -0,0 +1,474 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pivotal Software, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * Pivotal Software, Inc. - initial API and implementation
+ *******************************************************************************/
+package my.cool.lib;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes lines asynchronously to a channel. Callers claim a {@link Line} from
+ * a fixed ring of reusable slots, append to it and publish it. A background
+ * thread takes the published lines in order, encodes them into one buffer and
+ * writes them to the channel in batches. Claiming and publishing do not take
+ * a lock; a caller only waits if all slots are still waiting to be written.
+ * <p>
+ * Lines are written some time after they were published. Call {@link #flush}
+ * to wait until everything published so far has been written, and
+ * {@link #close} on shutdown: lines that are still queued when the JVM exits
+ * are lost. The channel itself is not closed by this sink.
+ */
+public class AsyncOutputSink implements Flushable, Closeable {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private final WritableByteChannel channel;
+
+	private final CharsetEncoder encoder;
+
+	private final Line[] slots;
+
+	private final int mask;
+
+	/**
+	 * Holds for each slot the sequence number of the line last published in
+	 * it.
+	 */
+	private final AtomicLongArray published;
+
+	/**
+	 * The sequence number of the next line to be claimed.
+	 */
+	private final AtomicLong claimed = new AtomicLong();
+
+	/**
+	 * The number of lines that were taken from the ring. Their slots can be
+	 * claimed again.
+	 */
+	private volatile long consumed;
+
+	/**
+	 * The number of lines that were written to the channel.
+	 */
+	private volatile long written;
+
+	private volatile boolean closed;
+
+	private volatile boolean writerParked;
+
+	private volatile IOException failure;
+
+	private final Thread writer;
+
+	/**
+	 * Creates a sink that writes to the given channel with the given charset.
+	 * The capacity is the number of lines that can be queued and is rounded
+	 * up to a power of two.
+	 */
+	public AsyncOutputSink(WritableByteChannel channel, Charset charset, int capacity) {
+		super();
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+
+		this.channel = channel;
+		this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+
+		slots = new Line[size];
+		published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Line(this);
+			// no line has been published in any slot yet
+			published.set(i, i - size);
+		}
+
+		mask = size - 1;
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "AsyncOutputSink");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Creates a sink that writes to the standard output with the default
+	 * charset.
+	 */
+	public static AsyncOutputSink toStandardOut() {
+		return new AsyncOutputSink(Channels.newChannel(new FileOutputStream(FileDescriptor.out)), Charset.defaultCharset(), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Claims a line to append to. The line must be published with
+	 * {@link Line#publish} and must not be used afterwards. If appending to
+	 * the line fails, it is discarded instead and must not be published.
+	 * Waits if no slot is free.
+	 *
+	 * @throws IllegalStateException if the sink is closed
+	 */
+	public Line claim() {
+		if (closed) {
+			throw new IllegalStateException("Sink is closed");
+		}
+
+		long sequence = claimed.getAndIncrement();
+		Line line = slots[(int) sequence & mask];
+		if (!awaitSlot(sequence)) {
+			throw new IllegalStateException("Sink is closed");
+		}
+
+		if (closed) {
+			// raced with close: the writer waits for every claimed sequence,
+			// so this one must be published, but it is skipped
+			line.sequence = sequence;
+			discard(line);
+			throw new IllegalStateException("Sink is closed");
+		}
+
+		line.sequence = sequence;
+		line.length = 0;
+		return line;
+	}
+
+	/**
+	 * Convenience method that writes the given text as one line.
+	 */
+	public void println(CharSequence text) {
+		claim().append(text).publish();
+	}
+
+	/**
+	 * Waits until the slot of the given sequence is free. Returns
+	 * {@code false} if the sink was closed and the writer stopped, so the
+	 * slot will never be freed.
+	 */
+	private boolean awaitSlot(long sequence) {
+		while (sequence - consumed >= slots.length) {
+			if (closed && !writer.isAlive()) {
+				return false;
+			}
+
+			wakeWriter();
+			LockSupport.parkNanos(this, PARK_NANOS);
+		}
+
+		return true;
+	}
+
+	void publish(Line line) {
+		published.set((int) line.sequence & mask, line.sequence);
+		wakeWriter();
+	}
+
+	/**
+	 * Publishes the given line as skipped, so that the writer does not wait
+	 * for it.
+	 */
+	void discard(Line line) {
+		line.length = -1;
+		publish(line);
+	}
+
+	private void wakeWriter() {
+		if (writerParked) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Waits until all lines that were published before this call have been
+	 * written to the channel. Lines that were claimed but not yet published
+	 * are only waited for if a later line was published already, because
+	 * lines are written in the order they were claimed.
+	 *
+	 * @throws IOException if writing to the channel failed
+	 */
+	@Override
+	public void flush() throws IOException {
+		// a slot holds its last published sequence until a later one
+		// replaces it, so the maximum covers every line published so far
+		long target = 0;
+		for (int i = 0; i < slots.length; i++) {
+			target = Math.max(target, published.get(i) + 1);
+		}
+
+
+		while (written < target && writer.isAlive()) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(this, PARK_NANOS);
+		}
+
+		checkFailure();
+	}
+
+	/**
+	 * Writes all queued lines and stops the background thread. Lines can not
+	 * be claimed afterwards.
+	 *
+	 * @throws IOException if writing to the channel failed
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(writer);
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		checkFailure();
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			throw new IOException("Could not write output", e);
+		}
+	}
+
+	private void writeLoop() {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		CharBuffer separator = CharBuffer.wrap(LINE_SEPARATOR);
+		long next = 0;
+		while (true) {
+			long start = next;
+			while (published.get((int) next & mask) == next) {
+				Line line = slots[(int) next & mask];
+				if (line.length >= 0) {
+					buffer = encode(CharBuffer.wrap(line.chars, 0, line.length), buffer);
+					separator.rewind();
+					buffer = encode(separator, buffer);
+				}
+
+				next++;
+				consumed = next;
+			}
+
+			if (next != start) {
+				buffer = drain(buffer);
+				written = next;
+				continue;
+			}
+
+			if (closed && next == claimed.get()) {
+				return;
+			}
+
+			writerParked = true;
+			if (published.get((int) next & mask) != next && !(closed && next == claimed.get())) {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+
+			writerParked = false;
+		}
+	}
+
+	private ByteBuffer encode(CharBuffer chars, ByteBuffer buffer) {
+		while (true) {
+			CoderResult result = encoder.encode(chars, buffer, true);
+			if (!result.isOverflow()) {
+				encoder.reset();
+				return buffer;
+			}
+
+			buffer = drain(buffer);
+		}
+	}
+
+	/**
+	 * Writes the contents of the buffer to the channel and returns the cleared
+	 * buffer. After a failure the output is discarded, so that callers never
+	 * wait for a broken channel.
+	 */
+	private ByteBuffer drain(ByteBuffer buffer) {
+		buffer.flip();
+		if (failure == null) {
+			try {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * A reusable line buffer. Its characters are kept between uses, so
+	 * appending does not allocate once the buffer is large enough.
+	 */
+	public static final class Line implements Appendable {
+
+		private final AsyncOutputSink sink;
+
+		private char[] chars = new char[128];
+
+		private int length;
+
+		private long sequence;
+
+		Line(AsyncOutputSink sink) {
+			super();
+			this.sink = sink;
+		}
+
+		@Override
+		public Line append(CharSequence text) {
+			if (text == null) {
+				return append("null");
+			}
+
+			return append(text, 0, text.length());
+		}
+
+		@Override
+		public Line append(CharSequence text, int start, int end) {
+			if (text == null) {
+				return append("null", start, end);
+			}
+
+			boolean appended = false;
+			try {
+				if (start < 0 || start > end || end > text.length()) {
+					throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + text.length());
+				}
+
+				ensureCapacity(end - start);
+				if (text instanceof String) {
+					((String) text).getChars(start, end, chars, length);
+					length += end - start;
+				} else {
+					for (int i = start; i < end; i++) {
+						chars[length++] = text.charAt(i);
+					}
+				}
+
+				appended = true;
+			} finally {
+				if (!appended) {
+					sink.discard(this);
+				}
+			}
+
+			return this;
+		}
+
+		@Override
+		public Line append(char c) {
+			reserve(1);
+			chars[length++] = c;
+			return this;
+		}
+
+		/**
+		 * Appends the decimal digits of the given number without creating a
+		 * string.
+		 */
+		public Line append(int i) {
+			if (i == Integer.MIN_VALUE) {
+				// cannot be negated
+				return append("-2147483648");
+			}
+
+			int value = i < 0 ? -i : i;
+			int digits = i < 0 ? 2 : 1;
+			for (int rest = value / 10; rest != 0; rest /= 10) {
+				digits++;
+			}
+
+			reserve(digits);
+			int pos = length + digits;
+			do {
+				chars[--pos] = (char) ('0' + value % 10);
+				value /= 10;
+			} while (value != 0);
+
+			if (i < 0) {
+				chars[--pos] = '-';
+			}
+
+			length += digits;
+			return this;
+		}
+
+		/**
+		 * Like {@link #ensureCapacity}, but discards the line if the buffer
+		 * cannot be grown.
+		 */
+		private void reserve(int additional) {
+			boolean reserved = false;
+			try {
+				ensureCapacity(additional);
+				reserved = true;
+			} finally {
+				if (!reserved) {
+					sink.discard(this);
+				}
+			}
+		}
+
+		private void ensureCapacity(int additional) {
+			int required = length + additional;
+			if (required > chars.length) {
+				char[] newChars = new char[Math.max(required, chars.length * 2)];
+				System.arraycopy(chars, 0, newChars, 0, length);
+				chars = newChars;
+			}
+		}
+
+		/**
+		 * Hands the line over to the writer. The line must not be used
+		 * afterwards.
+		 */
+		public void publish() {
+			sink.publish(this);
+		}
+	}
+
+}
@@ -11,13 +11,36 @@
 package my.cool.lib;
 
 public class CoolLib {
-	
+
+	private static volatile AsyncOutputSink sink;
+
+	/**
+	 * Routes the output of this class through the given sink, or back to
+	 * {@link System#out} if it is {@code null}. Returns the previous sink,
+	 * which is neither flushed nor closed.
+	 */
+	public static AsyncOutputSink setOutputSink(AsyncOutputSink outputSink) {
+		AsyncOutputSink previous = sink;
+		sink = outputSink;
+		return previous;
+	}
+
 	public static void niceMethod(String name, String superior) {
-		System.out.println(name + " is really nice but " + superior + " is awesome!");
+		AsyncOutputSink s = sink;
+		if (s == null) {
+			System.out.println(name + " is really nice but " + superior + " is awesome!");
+		} else {
+			s.claim().append(name).append(" is really nice but ").append(superior).append(" is awesome!").publish();
+		}
 	}
-	
+
 	public static void anotherMethod() {
-		System.out.println("Hi there!");
+		AsyncOutputSink s = sink;
+		if (s == null) {
+			System.out.println("Hi there!");
+		} else {
+			s.println("Hi there!");
+		}
 	}
 
 }
@@ -0,0 +1,147 @@
+package org.gradle;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * List that grows when an element is set or added past its end, like the
+ * {@code GrowthList} of commons-collections. The elements are kept in pages of
+ * {@value #PAGE_SIZE} elements that are allocated when the first non-null
+ * element is set in them, so gaps cost nothing and growing never copies the
+ * elements, only the small page directory. Elements in gaps are {@code null}.
+ * <p>
+ * Inserting and removing in the middle shifts the following elements one by
+ * one. The list is not thread-safe.
+ */
+public class ChunkedGrowthList<E> extends AbstractList<E> implements RandomAccess {
+
+    static final int PAGE_BITS = 10;
+
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private Object[][] pages = new Object[4][];
+
+    private int size;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        Object[] page = pages[index >>> PAGE_BITS];
+        return page == null ? null : (E) page[index & PAGE_MASK];
+    }
+
+    /**
+     * Sets the element at the given index. If the index is not less than the
+     * size, the list grows to include it.
+     */
+    @Override
+    public E set(int index, E element) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+
+        E previous = null;
+        if (index < size) {
+            previous = get(index);
+        } else {
+            modCount++;
+            size = index + 1;
+        }
+
+        store(index, element);
+        return previous;
+    }
+
+    /**
+     * Inserts the element at the given index. If the index is greater than
+     * the size, the list grows to include it.
+     */
+    @Override
+    public void add(int index, E element) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+
+        modCount++;
+        if (index >= size) {
+            size = index + 1;
+        } else {
+            size++;
+            for (int i = size - 1; i > index; i--) {
+                store(i, get(i - 1));
+            }
+        }
+
+        store(index, element);
+    }
+
+    @Override
+    public E remove(int index) {
+        E removed = get(index);
+        modCount++;
+        for (int i = index; i < size - 1; i++) {
+            store(i, get(i + 1));
+        }
+
+        size--;
+        store(size, null);
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        pages = new Object[4][];
+        size = 0;
+    }
+
+    /**
+     * Returns the number of allocated pages, for memory accounting.
+     */
+    int allocatedPages() {
+        int count = 0;
+        for (Object[] page : pages) {
+            if (page != null) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private void store(int index, Object element) {
+        int pageIndex = index >>> PAGE_BITS;
+        if (pageIndex >= pages.length) {
+            if (element == null) {
+                return;
+            }
+
+            pages = Arrays.copyOf(pages, Math.max(pageIndex + 1, pages.length * 2));
+        }
+
+        Object[] page = pages[pageIndex];
+        if (page == null) {
+            if (element == null) {
+                return;
+            }
+
+            page = new Object[PAGE_SIZE];
+            pages[pageIndex] = page;
+        }
+
+        page[index & PAGE_MASK] = element;
+    }
+
+}
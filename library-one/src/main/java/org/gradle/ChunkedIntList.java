@@ -0,0 +1,103 @@
+package org.gradle;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of ints with the same paging as {@link ChunkedGrowthList}:
+ * setting an index past the end grows the list, pages are allocated when the
+ * first non-zero value is set in them and values in gaps are 0. Values are
+ * stored unboxed.
+ * <p>
+ * The list is not thread-safe.
+ */
+public class ChunkedIntList {
+
+    private static final int PAGE_BITS = ChunkedGrowthList.PAGE_BITS;
+
+    private static final int PAGE_SIZE = ChunkedGrowthList.PAGE_SIZE;
+
+    private static final int PAGE_MASK = ChunkedGrowthList.PAGE_MASK;
+
+    private int[][] pages = new int[4][];
+
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        int[] page = pages[index >>> PAGE_BITS];
+        return page == null ? 0 : page[index & PAGE_MASK];
+    }
+
+    /**
+     * Sets the value at the given index and returns the previous one. If the
+     * index is not less than the size, the list grows to include it.
+     */
+    public int set(int index, int value) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+
+        int previous = 0;
+        if (index < size) {
+            previous = get(index);
+        } else {
+            size = index + 1;
+        }
+
+        store(index, value);
+        return previous;
+    }
+
+    public void add(int value) {
+        store(size++, value);
+    }
+
+    public void clear() {
+        pages = new int[4][];
+        size = 0;
+    }
+
+    public int[] toArray() {
+        int[] array = new int[size];
+        for (int pageIndex = 0; pageIndex < pages.length; pageIndex++) {
+            int[] page = pages[pageIndex];
+            int offset = pageIndex << PAGE_BITS;
+            if (page != null && offset < size) {
+                System.arraycopy(page, 0, array, offset, Math.min(PAGE_SIZE, size - offset));
+            }
+        }
+
+        return array;
+    }
+
+    private void store(int index, int value) {
+        int pageIndex = index >>> PAGE_BITS;
+        if (pageIndex >= pages.length) {
+            if (value == 0) {
+                return;
+            }
+
+            pages = Arrays.copyOf(pages, Math.max(pageIndex + 1, pages.length * 2));
+        }
+
+        int[] page = pages[pageIndex];
+        if (page == null) {
+            if (value == 0) {
+                return;
+            }
+
+            page = new int[PAGE_SIZE];
+            pages[pageIndex] = page;
+        }
+
+        page[index & PAGE_MASK] = value;
+    }
+
+}
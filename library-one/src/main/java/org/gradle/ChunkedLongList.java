@@ -0,0 +1,103 @@
+package org.gradle;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of longs with the same paging as {@link ChunkedGrowthList}:
+ * setting an index past the end grows the list, pages are allocated when the
+ * first non-zero value is set in them and values in gaps are 0. Values are
+ * stored unboxed.
+ * <p>
+ * The list is not thread-safe.
+ */
+public class ChunkedLongList {
+
+    private static final int PAGE_BITS = ChunkedGrowthList.PAGE_BITS;
+
+    private static final int PAGE_SIZE = ChunkedGrowthList.PAGE_SIZE;
+
+    private static final int PAGE_MASK = ChunkedGrowthList.PAGE_MASK;
+
+    private long[][] pages = new long[4][];
+
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        long[] page = pages[index >>> PAGE_BITS];
+        return page == null ? 0 : page[index & PAGE_MASK];
+    }
+
+    /**
+     * Sets the value at the given index and returns the previous one. If the
+     * index is not less than the size, the list grows to include it.
+     */
+    public long set(int index, long value) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+
+        long previous = 0;
+        if (index < size) {
+            previous = get(index);
+        } else {
+            size = index + 1;
+        }
+
+        store(index, value);
+        return previous;
+    }
+
+    public void add(long value) {
+        store(size++, value);
+    }
+
+    public void clear() {
+        pages = new long[4][];
+        size = 0;
+    }
+
+    public long[] toArray() {
+        long[] array = new long[size];
+        for (int pageIndex = 0; pageIndex < pages.length; pageIndex++) {
+            long[] page = pages[pageIndex];
+            int offset = pageIndex << PAGE_BITS;
+            if (page != null && offset < size) {
+                System.arraycopy(page, 0, array, offset, Math.min(PAGE_SIZE, size - offset));
+            }
+        }
+
+        return array;
+    }
+
+    private void store(int index, long value) {
+        int pageIndex = index >>> PAGE_BITS;
+        if (pageIndex >= pages.length) {
+            if (value == 0) {
+                return;
+            }
+
+            pages = Arrays.copyOf(pages, Math.max(pageIndex + 1, pages.length * 2));
+        }
+
+        long[] page = pages[pageIndex];
+        if (page == null) {
+            if (value == 0) {
+                return;
+            }
+
+            page = new long[PAGE_SIZE];
+            pages[pageIndex] = page;
+        }
+
+        page[index & PAGE_MASK] = value;
+    }
+
+}
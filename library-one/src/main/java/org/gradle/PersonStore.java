@@ -0,0 +1,361 @@
+package org.gradle;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Stores people column-wise and refers to them by int ids, which are assigned
+ * in insertion order starting at 0. Names are deduplicated and kept in one
+ * shared character array, so a person costs one int plus its share of the
+ * distinct names. {@link Person} objects are only created by {@link #get}.
+ * <p>
+ * Lookups by name or name prefix use an index of the people sorted by name,
+ * which is built on the first lookup after people were added. The people
+ * matching a prefix are a contiguous range of that index.
+ * <p>
+ * A store is not thread-safe.
+ */
+public class PersonStore {
+
+    private static final int[] NO_IDS = new int[0];
+
+    /** The characters of all distinct names. */
+    private char[] chars = new char[1024];
+
+    private int charCount;
+
+    /** Offset and length of each distinct name in {@link #chars}. */
+    private int[] nameOffsets = new int[64];
+
+    private int[] nameLengths = new int[64];
+
+    private int nameCount;
+
+    /** Open addressing hash table of name ids + 1, 0 means empty. */
+    private int[] nameTable = new int[128];
+
+    /** The name id of each person, indexed by person id. */
+    private final ChunkedIntList personNames = new ChunkedIntList();
+
+    /** Name ids sorted by name, or null if it must be rebuilt. */
+    private int[] sortedNames;
+
+    /**
+     * Start of the people of each entry of {@link #sortedNames} in
+     * {@link #sortedPersons}, with an additional end entry.
+     */
+    private int[] sortedStarts;
+
+    /** Person ids sorted by name, then by id. */
+    private int[] sortedPersons;
+
+    /**
+     * Adds a person and returns its id.
+     */
+    public int add(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name must not be null");
+        }
+
+        int id = personNames.size();
+        personNames.add(intern(name));
+        sortedNames = null;
+        return id;
+    }
+
+    public int size() {
+        return personNames.size();
+    }
+
+    /**
+     * Returns the number of distinct names.
+     */
+    public int nameCount() {
+        return nameCount;
+    }
+
+    public String getName(int id) {
+        int nameId = personNames.get(id);
+        return new String(chars, nameOffsets[nameId], nameLengths[nameId]);
+    }
+
+    /**
+     * Returns a new view of the given person.
+     */
+    public Person get(int id) {
+        return new Person(getName(id));
+    }
+
+    /**
+     * Returns the ids of the people with the given name in ascending order.
+     */
+    public int[] findByName(String name) {
+        int nameId = lookup(name);
+        if (nameId < 0) {
+            return NO_IDS;
+        }
+
+        ensureIndex();
+        // the index is sorted by name, so the position of the name is found
+        // by a search for the name as prefix
+        int position = lowerBound(name);
+        return Arrays.copyOfRange(sortedPersons, sortedStarts[position], sortedStarts[position + 1]);
+    }
+
+    /**
+     * Returns the ids of the people whose name starts with the given prefix,
+     * sorted by name and then by id.
+     */
+    public int[] findByPrefix(String prefix) {
+        ensureIndex();
+        int from = lowerBound(prefix);
+        int to = upperBound(prefix, from);
+        return Arrays.copyOfRange(sortedPersons, sortedStarts[from], sortedStarts[to]);
+    }
+
+    /**
+     * Returns the number of people whose name starts with the given prefix.
+     */
+    public int countByPrefix(String prefix) {
+        ensureIndex();
+        int from = lowerBound(prefix);
+        int to = upperBound(prefix, from);
+        return sortedStarts[to] - sortedStarts[from];
+    }
+
+    private int intern(String name) {
+        int mask = nameTable.length - 1;
+        int slot = hash(name) & mask;
+        while (nameTable[slot] != 0) {
+            int nameId = nameTable[slot] - 1;
+            if (nameEquals(nameId, name)) {
+                return nameId;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        int nameId = nameCount;
+        if (nameId == nameOffsets.length) {
+            nameOffsets = Arrays.copyOf(nameOffsets, nameId * 2);
+            nameLengths = Arrays.copyOf(nameLengths, nameId * 2);
+        }
+
+        int length = name.length();
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(charCount + length, chars.length * 2));
+        }
+
+        name.getChars(0, length, chars, charCount);
+        nameOffsets[nameId] = charCount;
+        nameLengths[nameId] = length;
+        charCount += length;
+        nameCount++;
+        nameTable[slot] = nameId + 1;
+        if (nameCount * 2 > nameTable.length) {
+            rehash();
+        }
+
+        return nameId;
+    }
+
+    private int lookup(String name) {
+        int mask = nameTable.length - 1;
+        int slot = hash(name) & mask;
+        while (nameTable[slot] != 0) {
+            int nameId = nameTable[slot] - 1;
+            if (nameEquals(nameId, name)) {
+                return nameId;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void rehash() {
+        int[] table = new int[nameTable.length * 2];
+        int mask = table.length - 1;
+        for (int nameId = 0; nameId < nameCount; nameId++) {
+            int slot = hash(nameId) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            table[slot] = nameId + 1;
+        }
+
+        nameTable = table;
+    }
+
+    private static int hash(String name) {
+        return mix(name.hashCode());
+    }
+
+    private int hash(int nameId) {
+        // same as String.hashCode()
+        int h = 0;
+        int end = nameOffsets[nameId] + nameLengths[nameId];
+        for (int i = nameOffsets[nameId]; i < end; i++) {
+            h = 31 * h + chars[i];
+        }
+
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean nameEquals(int nameId, String name) {
+        int length = nameLengths[nameId];
+        if (length != name.length()) {
+            return false;
+        }
+
+        int offset = nameOffsets[nameId];
+        for (int i = 0; i < length; i++) {
+            if (chars[offset + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Sorts the distinct names and groups the people by name with a counting
+     * sort, so that the people of each name are contiguous and in ascending
+     * id order.
+     */
+    private void ensureIndex() {
+        if (sortedNames != null) {
+            return;
+        }
+
+        Integer[] boxed = new Integer[nameCount];
+        for (int i = 0; i < nameCount; i++) {
+            boxed[i] = i;
+        }
+
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareNames(a, b);
+            }
+        });
+
+        int[] names = new int[nameCount];
+        int[] positions = new int[nameCount];
+        for (int i = 0; i < nameCount; i++) {
+            names[i] = boxed[i];
+            positions[boxed[i]] = i;
+        }
+
+        int[] personNameIds = personNames.toArray();
+        int[] starts = new int[nameCount + 1];
+        for (int id = 0; id < personNameIds.length; id++) {
+            starts[positions[personNameIds[id]] + 1]++;
+        }
+
+        for (int i = 0; i < nameCount; i++) {
+            starts[i + 1] += starts[i];
+        }
+
+        int[] next = Arrays.copyOf(starts, nameCount);
+        int[] persons = new int[personNameIds.length];
+        for (int id = 0; id < personNameIds.length; id++) {
+            persons[next[positions[personNameIds[id]]]++] = id;
+        }
+
+        sortedNames = names;
+        sortedStarts = starts;
+        sortedPersons = persons;
+    }
+
+    private int compareNames(int a, int b) {
+        int offsetA = nameOffsets[a];
+        int offsetB = nameOffsets[b];
+        int length = Math.min(nameLengths[a], nameLengths[b]);
+        for (int i = 0; i < length; i++) {
+            int cmp = chars[offsetA + i] - chars[offsetB + i];
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+
+        return nameLengths[a] - nameLengths[b];
+    }
+
+    /**
+     * Compares the given name with the key like {@link String#compareTo}.
+     */
+    private int compareName(int nameId, String key) {
+        int offset = nameOffsets[nameId];
+        int length = Math.min(nameLengths[nameId], key.length());
+        for (int i = 0; i < length; i++) {
+            int cmp = chars[offset + i] - key.charAt(i);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+
+        return nameLengths[nameId] - key.length();
+    }
+
+    private boolean startsWith(int nameId, String prefix) {
+        if (nameLengths[nameId] < prefix.length()) {
+            return false;
+        }
+
+        int offset = nameOffsets[nameId];
+        for (int i = 0; i < prefix.length(); i++) {
+            if (chars[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the position of the first name in the index that is not less
+     * than the key.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = nameCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareName(sortedNames[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the position after the last name in the index that starts with
+     * the prefix, searching from the given position.
+     */
+    private int upperBound(String prefix, int from) {
+        int low = from;
+        int high = nameCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startsWith(sortedNames[mid], prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+}
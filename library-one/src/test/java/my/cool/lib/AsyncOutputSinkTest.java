@@ -0,0 +1,141 @@
+package my.cool.lib;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AsyncOutputSinkTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String SEPARATOR = System.getProperty("line.separator");
+
+    @Test
+    public void writesLinesInOrderOfEachThread() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final AsyncOutputSink sink = new AsyncOutputSink(Channels.newChannel(out), UTF_8, 8);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int id = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        sink.claim().append(id).append(':').append(i).publish();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        sink.flush();
+        String[] lines = new String(out.toByteArray(), UTF_8).split(SEPARATOR);
+        assertEquals(4000, lines.length);
+        int[] next = new int[4];
+        for (String line : lines) {
+            int colon = line.indexOf(':');
+            int id = Integer.parseInt(line.substring(0, colon));
+            assertEquals(next[id]++, Integer.parseInt(line.substring(colon + 1)));
+        }
+
+        sink.close();
+    }
+
+    @Test
+    public void coolLibRoutesThroughSink() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncOutputSink sink = new AsyncOutputSink(Channels.newChannel(out), UTF_8, 2);
+        AsyncOutputSink previous = CoolLib.setOutputSink(sink);
+        try {
+            CoolLib.niceMethod("Maven", "Gradle");
+            CoolLib.anotherMethod();
+        } finally {
+            CoolLib.setOutputSink(previous);
+        }
+
+        sink.close();
+        assertEquals("Maven is really nice but Gradle is awesome!" + SEPARATOR + "Hi there!" + SEPARATOR, new String(out.toByteArray(), UTF_8));
+        try {
+            sink.println("closed");
+            fail("Claimed a line after close");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void claimAfterCloseFailsBeyondCapacity() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncOutputSink sink = new AsyncOutputSink(Channels.newChannel(out), UTF_8, 4);
+        sink.println("open");
+        sink.close();
+        for (int i = 0; i < 16; i++) {
+            try {
+                sink.println("closed " + i);
+                fail("Claimed a line after close");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+
+        assertEquals("open" + SEPARATOR, new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void appendsNumbers() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncOutputSink sink = new AsyncOutputSink(Channels.newChannel(out), UTF_8, 4);
+        sink.claim().append(0).append(' ').append(-7).append(' ').append(1234567890).publish();
+        sink.claim().append(Integer.MAX_VALUE).append(' ').append(Integer.MIN_VALUE).publish();
+        sink.close();
+        assertEquals("0 -7 1234567890" + SEPARATOR + "2147483647 -2147483648" + SEPARATOR, new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test(timeout = 10000)
+    public void failedAppendDoesNotBlockFlush() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncOutputSink sink = new AsyncOutputSink(Channels.newChannel(out), UTF_8, 2);
+        CharSequence broken = new CharSequence() {
+            @Override
+            public int length() {
+                return 6;
+            }
+
+            @Override
+            public char charAt(int index) {
+                throw new IllegalStateException("broken");
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        sink.println("before");
+        try {
+            sink.claim().append("partial ").append(broken).publish();
+            fail("Appended a broken sequence");
+        } catch (IllegalStateException e) {
+            // expected, the line is discarded
+        }
+
+        sink.flush();
+        assertEquals("before" + SEPARATOR, new String(out.toByteArray(), UTF_8));
+        for (int i = 0; i < 4; i++) {
+            sink.println("after " + i);
+        }
+
+        sink.close();
+        assertEquals("before" + SEPARATOR + "after 0" + SEPARATOR + "after 1" + SEPARATOR + "after 2" + SEPARATOR + "after 3" + SEPARATOR, new String(out.toByteArray(), UTF_8));
+    }
+}
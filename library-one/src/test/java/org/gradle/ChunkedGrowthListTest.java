@@ -0,0 +1,68 @@
+package org.gradle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ChunkedGrowthListTest {
+    @Test
+    public void growsWhenSetPastTheEnd() {
+        ChunkedGrowthList<String> list = new ChunkedGrowthList<String>();
+        list.add("a");
+        assertNull(list.set(100000, "b"));
+        assertEquals(100001, list.size());
+        assertNull(list.get(50000));
+        assertEquals("b", list.get(100000));
+        assertEquals(2, list.allocatedPages());
+        list.add(100005, "c");
+        assertEquals(100006, list.size());
+        assertEquals("c", list.get(100005));
+    }
+
+    @Test
+    public void behavesLikeArrayListForInsertsAndRemoves() {
+        Random random = new Random(42);
+        ChunkedGrowthList<Integer> list = new ChunkedGrowthList<Integer>();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(3);
+            if (op == 0 || expected.isEmpty()) {
+                list.add(i);
+                expected.add(i);
+            } else if (op == 1) {
+                int index = random.nextInt(expected.size());
+                list.add(index, i);
+                expected.add(index, i);
+            } else {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index), list.remove(index));
+            }
+        }
+
+        assertEquals(expected, list);
+        list.clear();
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void primitiveListsReadGapsAsZero() {
+        ChunkedIntList ints = new ChunkedIntList();
+        ints.add(7);
+        assertEquals(0, ints.set(3000, 9));
+        assertEquals(3001, ints.size());
+        assertEquals(0, ints.get(2000));
+        int[] array = ints.toArray();
+        assertEquals(7, array[0]);
+        assertEquals(9, array[3000]);
+
+        ChunkedLongList longs = new ChunkedLongList();
+        longs.set(5, Long.MAX_VALUE);
+        longs.add(1L);
+        assertArrayEquals(new long[] { 0, 0, 0, 0, 0, Long.MAX_VALUE, 1 }, longs.toArray());
+        assertTrue(Arrays.equals(new long[0], new ChunkedLongList().toArray()));
+    }
+}
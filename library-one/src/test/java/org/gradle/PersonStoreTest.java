@@ -0,0 +1,75 @@
+package org.gradle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PersonStoreTest {
+    @Test
+    public void storesDeduplicatedNames() {
+        PersonStore store = new PersonStore();
+        int larry = store.add("Larry");
+        int moe = store.add("Moe");
+        int larry2 = store.add("Larry");
+        assertEquals(3, store.size());
+        assertEquals(2, store.nameCount());
+        assertEquals("Larry", store.getName(larry2));
+        assertEquals("Moe", store.get(moe).getName());
+        assertArrayEquals(new int[] { larry, larry2 }, store.findByName("Larry"));
+        assertArrayEquals(new int[0], store.findByName("Curly"));
+    }
+
+    @Test
+    public void findsByPrefix() {
+        PersonStore store = new PersonStore();
+        store.add("Larry");
+        store.add("Lara");
+        store.add("Moe");
+        store.add("La");
+        store.add("Lb");
+        assertArrayEquals(new int[] { 3, 1, 0 }, store.findByPrefix("La"));
+        assertEquals(4, store.countByPrefix("L"));
+        assertEquals(5, store.countByPrefix(""));
+        assertEquals(0, store.countByPrefix("Larrys"));
+        store.add("Lars");
+        assertArrayEquals(new int[] { 3, 1, 0, 5 }, store.findByPrefix("La"));
+    }
+
+    @Test
+    public void matchesNaiveLookup() {
+        Random random = new Random(42);
+        PersonStore store = new PersonStore();
+        TreeMap<String, List<Integer>> expected = new TreeMap<String, List<Integer>>();
+        for (int id = 0; id < 20000; id++) {
+            StringBuilder name = new StringBuilder();
+            int length = 1 + random.nextInt(5);
+            for (int i = 0; i < length; i++) {
+                name.append((char) ('a' + random.nextInt(4)));
+            }
+
+            assertEquals(id, store.add(name.toString()));
+            if (!expected.containsKey(name.toString())) {
+                expected.put(name.toString(), new ArrayList<Integer>());
+            }
+
+            expected.get(name.toString()).add(id);
+        }
+
+        for (String prefix : new String[] { "", "a", "ab", "dcb", "abcda", "e" }) {
+            List<Integer> ids = new ArrayList<Integer>();
+            for (List<Integer> list : expected.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                ids.addAll(list);
+            }
+
+            int[] found = store.findByPrefix(prefix);
+            assertEquals(prefix, ids.size(), found.length);
+            for (int i = 0; i < found.length; i++) {
+                assertEquals(prefix, ids.get(i).intValue(), found[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pivotal Software, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * Pivotal Software, Inc. - initial API and implementation
+ *******************************************************************************/
+package my.cool.app;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets: values below
+ * 64 are counted exactly, larger ones in 32 buckets per power of two, so a
+ * reported percentile is at most about 3% above the recorded value. Recording
+ * does not allocate. A histogram is not thread-safe; each thread records into
+ * its own one and they are merged with {@link #add}.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+	private static final int LINEAR_EXPONENT = SUB_BUCKET_BITS + 1;
+
+	private final long[] counts = new long[LINEAR_LIMIT + (63 - LINEAR_EXPONENT) * SUB_BUCKETS];
+
+	private long count;
+
+	private long max;
+
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts[index(value)]++;
+		count++;
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+
+		count += other.count;
+		max = Math.max(max, other.max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the value below or at which the given percentage of the
+	 * recorded values lie, e.g. {@code 99.9}. Returns 0 if nothing has been
+	 * recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(percentile / 100 * count);
+		rank = Math.max(1, Math.min(count, rank));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(max, upperBound(i));
+			}
+		}
+
+		return max;
+	}
+
+	private static int index(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_LIMIT + (exponent - LINEAR_EXPONENT) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long upperBound(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+
+		int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_EXPONENT;
+		int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+}
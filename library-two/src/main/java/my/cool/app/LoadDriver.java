@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pivotal Software, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * Pivotal Software, Inc. - initial API and implementation
+ *******************************************************************************/
+package my.cool.app;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import my.cool.lib.AsyncOutputSink;
+import my.cool.lib.CoolLib;
+
+/**
+ * Calls {@link CoolLib} from a number of threads for a fixed time and reports
+ * the throughput and latency percentiles of the calls. Each thread records
+ * into its own histograms, which are merged at the end, so measuring does not
+ * add contention between the threads.
+ */
+public class LoadDriver {
+
+	/**
+	 * The calls the driver can make.
+	 */
+	public enum Operation {
+
+		NICE {
+			@Override
+			void call() {
+				CoolLib.niceMethod("Maven", "Gradle");
+			}
+		},
+
+		ANOTHER {
+			@Override
+			void call() {
+				CoolLib.anotherMethod();
+			}
+		};
+
+		abstract void call();
+	}
+
+	/**
+	 * Where {@link CoolLib} writes its output during the run.
+	 */
+	public enum Output {
+
+		/**
+		 * Directly to {@link System#out}.
+		 */
+		SYNC,
+
+		/**
+		 * Through an {@link AsyncOutputSink} to the standard output.
+		 */
+		ASYNC,
+
+		/**
+		 * Through an {@link AsyncOutputSink} that discards everything.
+		 */
+		NONE
+	}
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private boolean virtualThreads;
+
+	private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+
+	private long warmupNanos = TimeUnit.SECONDS.toNanos(2);
+
+	private Output output = Output.ASYNC;
+
+	private final int[] weights = new int[Operation.values().length];
+
+	public LoadDriver() {
+		super();
+		weights[Operation.NICE.ordinal()] = 1;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Thread count must be positive: " + threads);
+		}
+
+		this.threads = threads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	public void setDuration(long duration, TimeUnit unit) {
+		this.durationNanos = unit.toNanos(duration);
+	}
+
+	public void setWarmup(long warmup, TimeUnit unit) {
+		this.warmupNanos = unit.toNanos(warmup);
+	}
+
+	public void setOutput(Output output) {
+		this.output = output;
+	}
+
+	/**
+	 * Sets the relative frequency of the given operation. Operations with
+	 * weight 0 are not called.
+	 */
+	public void setWeight(Operation operation, int weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("Weight must not be negative: " + weight);
+		}
+
+		weights[operation.ordinal()] = weight;
+	}
+
+	/**
+	 * Runs the load and prints the report to the given stream.
+	 */
+	public void run(PrintStream report) throws IOException, InterruptedException {
+		int[] cumulativeWeights = new int[weights.length];
+		int total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			total += weights[i];
+			cumulativeWeights[i] = total;
+		}
+
+		if (total == 0) {
+			throw new IllegalArgumentException("At least one operation must have a positive weight");
+		}
+
+		AsyncOutputSink sink = createSink();
+		AsyncOutputSink previousSink = CoolLib.setOutputSink(sink);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			long measureTime = System.nanoTime() + warmupNanos;
+			long endTime = measureTime + durationNanos;
+			List<Worker> workers = new ArrayList<Worker>(threads);
+			List<Thread> workerThreads = new ArrayList<Thread>(threads);
+			for (int i = 0; i < threads; i++) {
+				Worker worker = new Worker(start, cumulativeWeights, measureTime, endTime, i);
+				workers.add(worker);
+				workerThreads.add(newThread(worker, "load-driver-" + i));
+			}
+
+			for (Thread thread : workerThreads) {
+				thread.start();
+			}
+
+			start.countDown();
+			for (Thread thread : workerThreads) {
+				thread.join();
+			}
+
+			if (sink != null) {
+				sink.flush();
+			}
+
+			report(workers, report);
+		} finally {
+			CoolLib.setOutputSink(previousSink);
+			if (sink != null) {
+				sink.close();
+			}
+		}
+	}
+
+	private AsyncOutputSink createSink() {
+		switch (output) {
+		case ASYNC:
+			return AsyncOutputSink.toStandardOut();
+		case NONE:
+			return new AsyncOutputSink(new DiscardingChannel(), Charset.defaultCharset(), 1024);
+		default:
+			return null;
+		}
+	}
+
+	private Thread newThread(Runnable runnable, String name) {
+		if (!virtualThreads) {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+
+		// Thread.ofVirtual().name(name).unstarted(runnable), which needs Java 21
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+			Method unstarted = builderClass.getMethod("unstarted", Runnable.class);
+			return (Thread) unstarted.invoke(builder, runnable);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual threads are not supported by this JVM (" + System.getProperty("java.version") + ")", e);
+		}
+	}
+
+	private void report(List<Worker> workers, PrintStream report) {
+		LatencyHistogram all = new LatencyHistogram();
+		LatencyHistogram[] perOperation = new LatencyHistogram[Operation.values().length];
+		for (int i = 0; i < perOperation.length; i++) {
+			perOperation[i] = new LatencyHistogram();
+		}
+
+		for (Worker worker : workers) {
+			for (int i = 0; i < perOperation.length; i++) {
+				perOperation[i].add(worker.histograms[i]);
+				all.add(worker.histograms[i]);
+			}
+		}
+
+		double seconds = durationNanos / 1e9;
+		report.println(String.format(Locale.ROOT, "threads: %d %s, duration: %.1f s, warmup: %.1f s, output: %s", threads, virtualThreads ? "virtual" : "platform", seconds, warmupNanos / 1e9, output.name().toLowerCase(Locale.ROOT)));
+		report.println(String.format(Locale.ROOT, "calls: %d, throughput: %.0f calls/s", all.getCount(), all.getCount() / seconds));
+		report.println(line("all", all));
+		for (Operation operation : Operation.values()) {
+			if (weights[operation.ordinal()] > 0) {
+				report.println(line(operation.name().toLowerCase(Locale.ROOT), perOperation[operation.ordinal()]));
+			}
+		}
+	}
+
+	private static String line(String name, LatencyHistogram histogram) {
+		return String.format(Locale.ROOT, "  %-8s latency (us): p50=%.2f p99=%.2f p999=%.2f max=%.2f", name, histogram.getPercentile(50) / 1e3, histogram.getPercentile(99) / 1e3, histogram.getPercentile(99.9) / 1e3, histogram.getMax() / 1e3);
+	}
+
+	private static final class Worker implements Runnable {
+
+		private final CountDownLatch start;
+
+		private final int[] cumulativeWeights;
+
+		private final long measureTime;
+
+		private final long endTime;
+
+		private final LatencyHistogram[] histograms;
+
+		private long random;
+
+		Worker(CountDownLatch start, int[] cumulativeWeights, long measureTime, long endTime, int seed) {
+			super();
+			this.start = start;
+			this.cumulativeWeights = cumulativeWeights;
+			this.measureTime = measureTime;
+			this.endTime = endTime;
+			this.random = 0x9E3779B97F4A7C15L * (seed + 1);
+			histograms = new LatencyHistogram[cumulativeWeights.length];
+			for (int i = 0; i < histograms.length; i++) {
+				histograms[i] = new LatencyHistogram();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				start.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			Operation[] operations = Operation.values();
+			int total = cumulativeWeights[cumulativeWeights.length - 1];
+			long now = System.nanoTime();
+			while (now < endTime) {
+				int op = pick(total);
+				operations[op].call();
+				long end = System.nanoTime();
+				if (now >= measureTime) {
+					histograms[op].record(end - now);
+				}
+
+				now = end;
+			}
+		}
+
+		/**
+		 * Picks an operation by weight with a xorshift generator, which is
+		 * cheaper than a shared {@link java.util.Random}.
+		 */
+		private int pick(int total) {
+			random ^= random << 13;
+			random ^= random >>> 7;
+			random ^= random << 17;
+			int r = (int) ((random >>> 33) % total);
+			int op = 0;
+			while (r >= cumulativeWeights[op]) {
+				op++;
+			}
+
+			return op;
+		}
+	}
+
+	private static final class DiscardingChannel implements WritableByteChannel {
+
+		private volatile boolean open = true;
+
+		@Override
+		public int write(ByteBuffer src) {
+			int remaining = src.remaining();
+			src.position(src.limit());
+			return remaining;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+
+}
@@ -10,12 +10,92 @@
  *******************************************************************************/
 package my.cool.app;
 
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
 import my.cool.lib.CoolLib;
 
+/**
+ * Without arguments, makes a single {@link CoolLib} call. With
+ * {@code --load}, runs the {@link LoadDriver} with the following options:
+ * <ul>
+ * <li>{@code --threads=<n>} number of calling threads, default: number of
+ * processors</li>
+ * <li>{@code --virtual} use virtual threads (Java 21 and later)</li>
+ * <li>{@code --duration=<seconds>} measured time, default: 10</li>
+ * <li>{@code --warmup=<seconds>} unmeasured time before, default: 2</li>
+ * <li>{@code --mix=<operation>:<weight>,...} e.g. {@code nice:9,another:1},
+ * default: {@code nice:1}</li>
+ * <li>{@code --output=sync|async|none} how CoolLib writes its output, default:
+ * {@code async}</li>
+ * </ul>
+ * The report is printed to the standard error, so the standard output can be
+ * discarded.
+ */
 public class Runner {
-	
-	public static void main(String[] args) {
-		CoolLib.niceMethod("Gradle");
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			CoolLib.niceMethod("Maven", "Gradle");
+			return;
+		}
+
+		LoadDriver driver = new LoadDriver();
+		boolean load = false;
+		for (String arg : args) {
+			String name = arg;
+			String value = null;
+			int eq = arg.indexOf('=');
+			if (eq >= 0) {
+				name = arg.substring(0, eq);
+				value = arg.substring(eq + 1);
+			}
+
+			if ("--load".equals(name)) {
+				load = true;
+			} else if ("--threads".equals(name)) {
+				driver.setThreads(Integer.parseInt(required(name, value)));
+			} else if ("--virtual".equals(name)) {
+				driver.setVirtualThreads(true);
+			} else if ("--duration".equals(name)) {
+				driver.setDuration(Long.parseLong(required(name, value)), TimeUnit.SECONDS);
+			} else if ("--warmup".equals(name)) {
+				driver.setWarmup(Long.parseLong(required(name, value)), TimeUnit.SECONDS);
+			} else if ("--mix".equals(name)) {
+				parseMix(driver, required(name, value));
+			} else if ("--output".equals(name)) {
+				driver.setOutput(LoadDriver.Output.valueOf(required(name, value).toUpperCase(Locale.ROOT)));
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		if (!load) {
+			throw new IllegalArgumentException("Options require --load");
+		}
+
+		driver.run(System.err);
+	}
+
+	private static String required(String name, String value) {
+		if (value == null || value.isEmpty()) {
+			throw new IllegalArgumentException("Missing value for " + name);
+		}
+
+		return value;
+	}
+
+	private static void parseMix(LoadDriver driver, String mix) {
+		for (LoadDriver.Operation operation : LoadDriver.Operation.values()) {
+			driver.setWeight(operation, 0);
+		}
+
+		for (String entry : mix.split(",")) {
+			int colon = entry.indexOf(':');
+			String operation = colon < 0 ? entry : entry.substring(0, colon);
+			int weight = colon < 0 ? 1 : Integer.parseInt(entry.substring(colon + 1).trim());
+			driver.setWeight(LoadDriver.Operation.valueOf(operation.trim().toUpperCase(Locale.ROOT)), weight);
+		}
 	}
 
 }
@@ -0,0 +1,95 @@
+package my.cool.app;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 63; i >= 0; i--) {
+            histogram.record(i);
+        }
+
+        assertEquals(64, histogram.getCount());
+        assertEquals(63, histogram.getMax());
+        // the lowest rank is 1, so percentile 0 is the minimum
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(0, histogram.getPercentile(1));
+        assertEquals(1, histogram.getPercentile(2));
+        assertEquals(31, histogram.getPercentile(50));
+        assertEquals(32, histogram.getPercentile(50.1));
+        assertEquals(62, histogram.getPercentile(98.4));
+        assertEquals(63, histogram.getPercentile(99.9));
+        assertEquals(63, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreCappedByMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        // 1000 falls into the bucket up to 1007
+        assertEquals(1000, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(100));
+
+        histogram.record(1000000);
+        assertEquals(1007, histogram.getPercentile(50));
+        assertEquals(1000000, histogram.getPercentile(100));
+        assertEquals(1000000, histogram.getMax());
+    }
+
+    @Test
+    public void largeValuesStayWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 64; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            LatencyHistogram single = new LatencyHistogram();
+            single.record(value);
+            single.record(Long.MAX_VALUE);
+            long reported = single.getPercentile(50);
+            assertTrue(value + " reported as " + reported, reported >= value && reported - value <= value / 32);
+            histogram.add(single);
+        }
+
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void addMergesCountsAndMax() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        first.record(20);
+        second.record(5);
+        second.record(40);
+        first.add(second);
+
+        assertEquals(4, first.getCount());
+        assertEquals(40, first.getMax());
+        assertEquals(5, first.getPercentile(25));
+        assertEquals(10, first.getPercentile(50));
+        assertEquals(20, first.getPercentile(75));
+        assertEquals(40, first.getPercentile(100));
+        assertEquals(2, second.getCount());
+    }
+
+}
@@ -0,0 +1,382 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+
+/**
+ * Measures how version determination scales with the shape of the
+ * repository. For every combination of the configured sizes, a local
+ * repository with that many projects, release tags per project, release and
+ * hotfix branches per project and loose or packed refs is generated. Then the
+ * versions of all projects are determined the way a build does it, once
+ * without any caches and once with the version cache of the first build.
+ * <p>
+ * The result is a table with the build time and the mean and maximum time
+ * per project. The time per project should not grow with the number of
+ * projects; if it does, version determination is O(projects &times; refs).
+ * Runs offline, with {@code gradle -p buildSrc scalingReport}.
+ * <p>
+ * Arguments: the work directory and the report file, followed by options
+ * {@code --projects=10,100}, {@code --tags=10,100}, {@code --branches=2},
+ * {@code --refs=loose,packed}, {@code --commits=200} and
+ * {@code --repetitions=3}. The fastest repetition is reported.
+ */
+public class ScalingHarness {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final PersonIdent AUTHOR = new PersonIdent("Release", "release@example.com", 0, 0);
+
+	private static final String REMOTE = "origin";
+
+	private final File workDir;
+
+	private int[] projectCounts = { 10, 100 };
+
+	private int[] tagCounts = { 10, 100 };
+
+	private int[] branchCounts = { 2 };
+
+	private boolean[] packedModes = { false, true };
+
+	private int commits = 200;
+
+	private int repetitions = 3;
+
+	ScalingHarness(File workDir) {
+		super();
+		this.workDir = workDir;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: ScalingHarness <work dir> <report file> [--projects=10,100] [--tags=10,100] [--branches=2] [--refs=loose,packed] [--commits=200] [--repetitions=3]");
+			System.exit(2);
+		}
+
+		ScalingHarness harness = new ScalingHarness(new File(args[0]));
+		for (String arg : Arrays.asList(args).subList(2, args.length)) {
+			int eq = arg.indexOf('=');
+			String name = eq < 0 ? arg : arg.substring(0, eq);
+			String value = eq < 0 ? "" : arg.substring(eq + 1);
+			if ("--projects".equals(name)) {
+				harness.projectCounts = parseInts(value);
+			} else if ("--tags".equals(name)) {
+				harness.tagCounts = parseInts(value);
+			} else if ("--branches".equals(name)) {
+				harness.branchCounts = parseInts(value);
+			} else if ("--refs".equals(name)) {
+				harness.packedModes = parseRefModes(value);
+			} else if ("--commits".equals(name)) {
+				harness.commits = Integer.parseInt(value);
+			} else if ("--repetitions".equals(name)) {
+				harness.repetitions = Integer.parseInt(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+
+		File reportFile = new File(args[1]);
+		List<Result> results = harness.run();
+		File dir = reportFile.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(reportFile), UTF_8);
+		try {
+			writeTable(results, new PrintWriter(out));
+		} finally {
+			out.close();
+		}
+
+		PrintWriter console = new PrintWriter(System.out);
+		writeTable(results, console);
+		console.flush();
+	}
+
+	private static int[] parseInts(String value) {
+		String[] parts = value.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+
+		return values;
+	}
+
+	private static boolean[] parseRefModes(String value) {
+		String[] parts = value.split(",");
+		boolean[] packed = new boolean[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			String mode = parts[i].trim();
+			if (!"loose".equals(mode) && !"packed".equals(mode)) {
+				throw new IllegalArgumentException("Refs must be loose or packed: " + mode);
+			}
+
+			packed[i] = "packed".equals(mode);
+		}
+
+		return packed;
+	}
+
+	List<Result> run() throws Exception {
+		List<Result> results = new ArrayList<Result>();
+		for (int projects : projectCounts) {
+			for (int tags : tagCounts) {
+				for (int branches : branchCounts) {
+					for (boolean packed : packedModes) {
+						Shape shape = new Shape(projects, tags, branches, packed);
+						File repositoryDir = new File(workDir, shape.toString());
+						generate(repositoryDir, shape);
+						Result best = null;
+						for (int i = 0; i < repetitions; i++) {
+							Result result = measure(repositoryDir, shape);
+							if (best == null || result.coldNanos < best.coldNanos) {
+								best = result;
+							}
+						}
+
+						results.add(best);
+						System.err.println("Measured " + shape);
+					}
+				}
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Generates a repository whose {@code develop} branch has a linear history
+	 * with release tags of every project spread over it, release branches on
+	 * the remote and local hotfix branches. The root project lives in
+	 * {@code master}, the projects next to it, like in this repository.
+	 */
+	private void generate(File repositoryDir, Shape shape) throws Exception {
+		if (repositoryDir.exists()) {
+			delete(repositoryDir);
+		}
+
+		Git git = Git.init().setDirectory(repositoryDir).call();
+		try {
+			StoredConfig config = git.getRepository().getConfig();
+			config.setString("remote", REMOTE, "url", "file:///dev/null");
+			config.setString("remote", REMOTE, "fetch", "+refs/heads/*:refs/remotes/" + REMOTE + "/*");
+			config.save();
+
+			ObjectId[] history = new ObjectId[commits];
+			ObjectInserter inserter = git.getRepository().newObjectInserter();
+			try {
+				ObjectId tree = inserter.insert(Constants.OBJ_TREE, new byte[0]);
+				for (int i = 0; i < commits; i++) {
+					CommitBuilder commit = new CommitBuilder();
+					commit.setTreeId(tree);
+					if (i > 0) {
+						commit.setParentId(history[i - 1]);
+					}
+
+					commit.setAuthor(AUTHOR);
+					commit.setCommitter(AUTHOR);
+					commit.setMessage("Commit " + i);
+					history[i] = inserter.insert(commit);
+				}
+
+				inserter.flush();
+			} finally {
+				inserter.release();
+			}
+
+			TreeSet<String> refs = new TreeSet<String>();
+			ObjectId head = history[commits - 1];
+			refs.add(Constants.R_HEADS + "develop " + head.name());
+			refs.add(Constants.R_HEADS + "master " + head.name());
+			for (int p = 0; p < shape.projects; p++) {
+				String project = projectName(p);
+				for (int t = 0; t < shape.tags; t++) {
+					// older versions on older commits, all reachable from develop
+					ObjectId commit = history[(int) ((long) t * (commits - 1) / Math.max(1, shape.tags - 1))];
+					refs.add(Constants.R_TAGS + project + '-' + (t / 10) + '.' + (t % 10) + ".0 " + commit.name());
+				}
+
+				for (int b = 0; b < shape.branches; b++) {
+					String version = (shape.tags / 10 + 1 + b) + ".0.0";
+					refs.add(Constants.R_REMOTES + REMOTE + '/' + project + RefIndex.RELEASE_INFIX + version + ' ' + head.name());
+					refs.add(Constants.R_HEADS + project + RefIndex.HOTFIX_INFIX + version + ' ' + head.name());
+				}
+			}
+
+			writeRefs(git.getRepository().getDirectory(), refs, shape.packed);
+			Files.write(new File(git.getRepository().getDirectory(), Constants.HEAD).toPath(), ("ref: " + Constants.R_HEADS + "develop\n").getBytes(UTF_8));
+		} finally {
+			git.close();
+		}
+
+		new File(repositoryDir, "master").mkdirs();
+		for (int p = 0; p < shape.projects; p++) {
+			new File(repositoryDir, projectName(p)).mkdirs();
+		}
+	}
+
+	/**
+	 * Writes the given {@code <name> <id>} lines either into a sorted
+	 * {@code packed-refs} file or as loose ref files.
+	 */
+	private static void writeRefs(File gitDir, TreeSet<String> refs, boolean packed) throws IOException {
+		if (packed) {
+			StringBuilder sb = new StringBuilder("# pack-refs with: peeled fully-peeled sorted \n");
+			for (String ref : refs) {
+				int space = ref.indexOf(' ');
+				sb.append(ref, space + 1, ref.length()).append(' ').append(ref, 0, space).append('\n');
+			}
+
+			Files.write(new File(gitDir, "packed-refs").toPath(), sb.toString().getBytes(UTF_8));
+		} else {
+			for (String ref : refs) {
+				int space = ref.indexOf(' ');
+				File file = new File(gitDir, ref.substring(0, space));
+				file.getParentFile().mkdirs();
+				Files.write(file.toPath(), (ref.substring(space + 1) + '\n').getBytes(UTF_8));
+			}
+		}
+	}
+
+	/**
+	 * Determines the versions of all projects in a build without caches and
+	 * then in a build that finds the version cache of the first one.
+	 */
+	private Result measure(File repositoryDir, Shape shape) throws Exception {
+		Project root = ProjectBuilder.builder().withName("master").withProjectDir(new File(repositoryDir, "master")).build();
+		root.getExtensions().getExtraProperties().set("release.daemonCache", "false");
+		List<Project> projects = new ArrayList<Project>(shape.projects);
+		for (int p = 0; p < shape.projects; p++) {
+			projects.add(ProjectBuilder.builder().withParent(root).withName(projectName(p)).withProjectDir(new File(repositoryDir, projectName(p))).build());
+		}
+
+		delete(root.getBuildDir());
+		Result result = new Result(shape);
+		result.coldNanos = build(root, projects, result);
+		result.cachedNanos = build(root, projects, null);
+		return result;
+	}
+
+	private static long build(Project root, List<Project> projects, Result result) {
+		long start = System.nanoTime();
+		ReleaseContext context = new ReleaseContext(root);
+		try {
+			DetermineVersionAction action = context.getDetermineVersionAction();
+			for (Project project : projects) {
+				long projectStart = System.nanoTime();
+				action.determineVersion(project);
+				if (result != null) {
+					result.projectDone(System.nanoTime() - projectStart);
+				}
+			}
+		} finally {
+			context.close();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static String projectName(int index) {
+		return "lib-" + index;
+	}
+
+	private static void delete(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Could not delete " + file);
+		}
+	}
+
+	private static void writeTable(List<Result> results, PrintWriter out) {
+		out.println(String.format(Locale.ROOT, "%8s %6s %8s %6s %8s %12s %12s %14s %14s", "projects", "tags", "branches", "refs", "total", "build ms", "cached ms", "us/project", "max us"));
+		for (Result result : results) {
+			Shape shape = result.shape;
+			out.println(String.format(Locale.ROOT, "%8d %6d %8d %6s %8d %12.1f %12.1f %14.1f %14.1f", shape.projects, shape.tags, shape.branches, shape.packed ? "packed" : "loose", shape.refCount(),
+					result.coldNanos / 1e6, result.cachedNanos / 1e6, result.projectNanos / 1e3 / Math.max(1, shape.projects), result.maxProjectNanos / 1e3));
+		}
+
+		out.flush();
+	}
+
+	private static final class Shape {
+
+		private final int projects;
+
+		private final int tags;
+
+		private final int branches;
+
+		private final boolean packed;
+
+		Shape(int projects, int tags, int branches, boolean packed) {
+			super();
+			this.projects = projects;
+			this.tags = tags;
+			this.branches = branches;
+			this.packed = packed;
+		}
+
+		int refCount() {
+			return 2 + projects * (tags + 2 * branches);
+		}
+
+		@Override
+		public String toString() {
+			return "p" + projects + "-t" + tags + "-b" + branches + (packed ? "-packed" : "-loose");
+		}
+	}
+
+	private static final class Result {
+
+		private final Shape shape;
+
+		private long coldNanos;
+
+		private long cachedNanos;
+
+		private long projectNanos;
+
+		private long maxProjectNanos;
+
+		Result(Shape shape) {
+			super();
+			this.shape = shape;
+		}
+
+		void projectDone(long nanos) {
+			projectNanos += nanos;
+			maxProjectNanos = Math.max(maxProjectNanos, nanos);
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the {@link Version} operations that run for every ref and
+ * project during the configuration phase.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VersionBenchmark {
+
+	private static final int SIZE = 10000;
+
+	private static final String PROJECT = "library-one";
+
+	private static final String[] QUALIFIERS = { null, "DEV", "REL", "SNAPSHOT", "201502260915-r" };
+
+	private String[] tagNames;
+
+	private String[] versionStrings;
+
+	private Version[] versions;
+
+	private Map<Version, String> versionMap;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		tagNames = new String[SIZE];
+		versionStrings = new String[SIZE];
+		versions = new Version[SIZE];
+		versionMap = new HashMap<Version, String>();
+		for (int i = 0; i < SIZE; i++) {
+			Version version = new Version(random.nextInt(20), random.nextInt(50), random.nextInt(200), QUALIFIERS[random.nextInt(QUALIFIERS.length)]);
+			versionStrings[i] = version.toString();
+			tagNames[i] = PROJECT + '-' + versionStrings[i];
+			versions[i] = Version.parse(versionStrings[i]);
+			versionMap.put(version, tagNames[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void parse(Blackhole blackhole) {
+		for (String versionString : versionStrings) {
+			blackhole.consume(Version.parse(versionString));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void parseTagName(Blackhole blackhole) {
+		int start = PROJECT.length() + 1;
+		for (String tagName : tagNames) {
+			blackhole.consume(Version.tryParse(tagName, start));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void format(Blackhole blackhole) {
+		for (Version version : versions) {
+			blackhole.consume(new Version(version.getMajor(), version.getMinor(), version.getMicro(), version.getQualifier()).toString());
+		}
+	}
+
+	@Benchmark
+	public Version[] sort() {
+		Version[] sorted = Arrays.copyOf(versions, versions.length);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void hashMapLookup(Blackhole blackhole) {
+		for (Version version : versions) {
+			blackhole.consume(versionMap.get(version));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void hashMapLookupFreshKey(Blackhole blackhole) {
+		for (Version version : versions) {
+			Version key = new Version(version.getMajor(), version.getMinor(), version.getMicro(), version.getQualifier());
+			blackhole.consume(versionMap.get(key));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void incrementDev(Blackhole blackhole) {
+		for (Version version : versions) {
+			blackhole.consume(version.withNextMinor().withQualifier("DEV"));
+		}
+	}
+
+}
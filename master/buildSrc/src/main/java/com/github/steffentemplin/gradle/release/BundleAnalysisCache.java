@@ -0,0 +1,233 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of the result of an OSGi bundle analysis. The file is a
+ * plain manifest with additional main attributes holding the fingerprint of
+ * the analysis inputs and the bundle version the analysis was made for. The
+ * fingerprint does not cover the version: if only the version changed, the
+ * cached manifest is returned with {@code Bundle-Version} and the versions of
+ * the exported packages updated. If the fingerprint differs, the cached
+ * manifest is discarded.
+ */
+class BundleAnalysisCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BundleAnalysisCache.class);
+
+	private static final Attributes.Name FINGERPRINT_ATTRIBUTE = new Attributes.Name("Release-Analysis-Fingerprint");
+
+	private static final Attributes.Name VERSION_ATTRIBUTE = new Attributes.Name("Release-Analysis-Version");
+
+	static final Attributes.Name BUNDLE_VERSION = new Attributes.Name("Bundle-Version");
+
+	static final Attributes.Name EXPORT_PACKAGE = new Attributes.Name("Export-Package");
+
+	private static final String VERSION_PARAMETER = "version=";
+
+	private final File file;
+
+	BundleAnalysisCache(File file) {
+		super();
+		this.file = file;
+	}
+
+	/**
+	 * Returns the cached manifest for the given fingerprint, updated to the
+	 * given bundle version, or {@code null} if there is none.
+	 */
+	Manifest load(String fingerprint, String version) {
+		if (!file.isFile()) {
+			return null;
+		}
+
+		Manifest manifest;
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				manifest = new Manifest(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not read bundle analysis cache " + file, e);
+			return null;
+		}
+
+		if (!fingerprint.equals(manifest.getMainAttributes().remove(FINGERPRINT_ATTRIBUTE))) {
+			LOG.debug("Bundle contents changed, discarding bundle analysis cache " + file);
+			return null;
+		}
+
+		Attributes mainAttributes = manifest.getMainAttributes();
+		String analysisVersion = (String) mainAttributes.remove(VERSION_ATTRIBUTE);
+		if (version != null && !version.equals(analysisVersion)) {
+			mainAttributes.put(BUNDLE_VERSION, version);
+			String exports = mainAttributes.getValue(EXPORT_PACKAGE);
+			if (exports != null && analysisVersion != null) {
+				mainAttributes.put(EXPORT_PACKAGE, replaceVersion(exports, analysisVersion, version));
+			}
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Writes the given manifest for the given fingerprint and bundle version.
+	 * The file is replaced atomically.
+	 */
+	void store(String fingerprint, String version, Manifest manifest) throws IOException {
+		Manifest copy = new Manifest(manifest);
+		Attributes mainAttributes = copy.getMainAttributes();
+		if (!mainAttributes.containsKey(Attributes.Name.MANIFEST_VERSION)) {
+			mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		}
+
+		mainAttributes.put(FINGERPRINT_ATTRIBUTE, fingerprint);
+		if (version != null) {
+			mainAttributes.put(VERSION_ATTRIBUTE, version);
+		}
+
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			OutputStream out = new FileOutputStream(tmpFile);
+			try {
+				copy.write(out);
+			} finally {
+				out.close();
+			}
+
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Replaces the value of every {@code version} parameter of the given
+	 * header that equals {@code oldVersion}, quoted or not.
+	 */
+	static String replaceVersion(String header, String oldVersion, String newVersion) {
+		StringBuilder sb = new StringBuilder(header.length());
+		int pos = 0;
+		int idx = header.indexOf(VERSION_PARAMETER, pos);
+		while (idx >= 0) {
+			int start = idx + VERSION_PARAMETER.length();
+			boolean quoted = header.startsWith("\"", start);
+			int valueStart = quoted ? start + 1 : start;
+			int valueEnd = valueStart + oldVersion.length();
+			if (isParameterStart(header, idx) && header.startsWith(oldVersion, valueStart) && isValueEnd(header, valueEnd, quoted)) {
+				sb.append(header, pos, valueStart).append(newVersion);
+				pos = valueEnd;
+			}
+
+			idx = header.indexOf(VERSION_PARAMETER, start);
+		}
+
+		return sb.append(header, pos, header.length()).toString();
+	}
+
+	private static boolean isParameterStart(String header, int idx) {
+		int i = idx - 1;
+		while (i >= 0 && header.charAt(i) == ' ') {
+			i--;
+		}
+
+		return i >= 0 && header.charAt(i) == ';';
+	}
+
+	private static boolean isValueEnd(String header, int idx, boolean quoted) {
+		if (quoted) {
+			return header.startsWith("\"", idx);
+		}
+
+		return idx == header.length() || header.charAt(idx) == ';' || header.charAt(idx) == ',';
+	}
+
+	/**
+	 * Computes the fingerprint of the inputs of a bundle analysis.
+	 */
+	static final class Fingerprint {
+
+		private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+		private final MessageDigest digest = RefState.newDigest();
+
+		/**
+		 * Adds a value. {@code null} is distinguished from the empty string.
+		 */
+		Fingerprint add(Object value) {
+			if (value == null) {
+				digest.update((byte) 0);
+			} else {
+				digest.update((byte) 1);
+				digest.update(String.valueOf(value).getBytes(UTF_8));
+				digest.update((byte) 0);
+			}
+
+			return this;
+		}
+
+		/**
+		 * Adds the given file or directory tree. File contents are hashed if
+		 * {@code contents} is {@code true}, otherwise only their size and
+		 * modification time.
+		 */
+		Fingerprint addTree(File root, boolean contents) throws IOException {
+			add(root == null ? null : root.getPath());
+			if (root != null) {
+				addTree(root, "", contents);
+			}
+
+			return this;
+		}
+
+		private void addTree(File file, String path, boolean contents) throws IOException {
+			if (file.isDirectory()) {
+				String[] names = file.list();
+				if (names == null) {
+					throw new IOException("Could not list directory " + file);
+				}
+
+				Arrays.sort(names);
+				for (String name : names) {
+					addTree(new File(file, name), path + '/' + name, contents);
+				}
+			} else if (file.isFile()) {
+				add(path);
+				if (contents) {
+					byte[] bytes = Files.readAllBytes(file.toPath());
+					add(bytes.length);
+					digest.update(bytes);
+				} else {
+					add(file.length() + ":" + file.lastModified());
+				}
+			}
+		}
+
+		String finish() {
+			return RefState.toHex(digest.digest());
+		}
+	}
+
+}
@@ -0,0 +1,231 @@
+package com.github.steffentemplin.gradle.release;
+
+import groovy.lang.Closure;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.gradle.api.Action;
+import org.gradle.api.Task;
+import org.gradle.api.internal.file.FileResolver;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.java.archives.Attributes;
+import org.gradle.api.java.archives.Manifest;
+import org.gradle.api.java.archives.ManifestException;
+import org.gradle.api.java.archives.internal.DefaultManifest;
+import org.gradle.api.plugins.osgi.OsgiManifest;
+import org.gradle.api.tasks.bundling.Jar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manifest of a jar task that wraps the {@link OsgiManifest} of the
+ * {@code osgi} plugin and caches its bundle analysis in a
+ * {@link BundleAnalysisCache}. The analysis is keyed on the contents of the
+ * class files, the classpath and all manifest settings except the version,
+ * so changing only the project version does not analyse the classes again.
+ * <p>
+ * Manifests merged with {@code from} are not part of the key. Builds that
+ * merge manifests whose contents change should not use the cache.
+ */
+class CachingOsgiManifest implements Manifest {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CachingOsgiManifest.class);
+
+	private static final String CACHE_FILE_NAME = "bundle-analysis.mf";
+
+	private final OsgiManifest delegate;
+
+	private final BundleAnalysisCache cache;
+
+	private final FileResolver fileResolver;
+
+	private Manifest effectiveManifest;
+
+	CachingOsgiManifest(OsgiManifest delegate, File cacheFile, FileResolver fileResolver) {
+		super();
+		this.delegate = delegate;
+		this.cache = new BundleAnalysisCache(cacheFile);
+		this.fileResolver = fileResolver;
+	}
+
+	/**
+	 * Wraps the manifest of the given jar task right before it is executed,
+	 * i.e. after the build scripts configured it, if it is an OSGi manifest.
+	 * The cache is kept in the temporary directory of the task. Cached
+	 * manifests resolve paths like the OSGi manifest, i.e. relative to the
+	 * project directory.
+	 */
+	static void install(Jar jar) {
+		jar.doFirst(new Action<Task>() {
+			@Override
+			public void execute(Task task) {
+				Jar jar = (Jar) task;
+				if (jar.getManifest() instanceof OsgiManifest) {
+					File cacheFile = new File(jar.getTemporaryDir(), CACHE_FILE_NAME);
+					FileResolver fileResolver = ((ProjectInternal) jar.getProject()).getFileResolver();
+					jar.setManifest(new CachingOsgiManifest((OsgiManifest) jar.getManifest(), cacheFile, fileResolver));
+				}
+			}
+		});
+	}
+
+	@Override
+	public Attributes getAttributes() {
+		return delegate.getAttributes();
+	}
+
+	@Override
+	public Map<String, Attributes> getSections() {
+		return delegate.getSections();
+	}
+
+	@Override
+	public synchronized Manifest attributes(Map<String, ?> attributes) throws ManifestException {
+		delegate.attributes(attributes);
+		effectiveManifest = null;
+		return this;
+	}
+
+	@Override
+	public synchronized Manifest attributes(Map<String, ?> attributes, String sectionName) throws ManifestException {
+		delegate.attributes(attributes, sectionName);
+		effectiveManifest = null;
+		return this;
+	}
+
+	@Override
+	public synchronized Manifest from(Object... mergePath) {
+		delegate.from(mergePath);
+		effectiveManifest = null;
+		return this;
+	}
+
+	@Override
+	public synchronized Manifest from(Object mergePath, Closure<?> closure) {
+		delegate.from(mergePath, closure);
+		effectiveManifest = null;
+		return this;
+	}
+
+	@Override
+	public Manifest writeTo(Writer writer) {
+		getEffectiveManifest().writeTo(writer);
+		return this;
+	}
+
+	@Override
+	public Manifest writeTo(Object path) {
+		getEffectiveManifest().writeTo(path);
+		return this;
+	}
+
+	@Override
+	public synchronized Manifest getEffectiveManifest() {
+		if (effectiveManifest == null) {
+			effectiveManifest = analyse();
+		}
+
+		return effectiveManifest;
+	}
+
+	private Manifest analyse() {
+		String fingerprint;
+		try {
+			fingerprint = fingerprint();
+		} catch (IOException e) {
+			LOG.warn("Could not fingerprint bundle contents of " + delegate.getSymbolicName() + ", analysing without cache", e);
+			return delegate.getEffectiveManifest();
+		}
+
+		String version = delegate.getVersion();
+		java.util.jar.Manifest cached = cache.load(fingerprint, version);
+		if (cached != null) {
+			LOG.info("Reusing bundle analysis of " + delegate.getSymbolicName());
+			return toManifest(cached, fileResolver);
+		}
+
+		Manifest manifest = delegate.getEffectiveManifest();
+		try {
+			cache.store(fingerprint, version, toJarManifest(manifest));
+		} catch (IOException e) {
+			LOG.warn("Could not cache bundle analysis of " + delegate.getSymbolicName(), e);
+		} catch (IllegalArgumentException e) {
+			// attribute names that java.util.jar does not accept
+			LOG.debug("Could not cache bundle analysis of " + delegate.getSymbolicName(), e);
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Hashes everything the analysis depends on except the version.
+	 */
+	private String fingerprint() throws IOException {
+		BundleAnalysisCache.Fingerprint fingerprint = new BundleAnalysisCache.Fingerprint();
+		fingerprint.add(delegate.getSymbolicName()).add(delegate.getName()).add(delegate.getDescription());
+		fingerprint.add(delegate.getLicense()).add(delegate.getVendor()).add(delegate.getDocURL());
+		fingerprint.add(new TreeMap<String, Object>(delegate.getInstructions()));
+		Map<String, Object> attributes = new TreeMap<String, Object>(delegate.getAttributes());
+		attributes.remove(BundleAnalysisCache.BUNDLE_VERSION.toString());
+		fingerprint.add(attributes);
+		for (Map.Entry<String, Attributes> section : new TreeMap<String, Attributes>(delegate.getSections()).entrySet()) {
+			fingerprint.add(section.getKey()).add(new TreeMap<String, Object>(section.getValue()));
+		}
+
+		fingerprint.addTree(delegate.getClassesDir(), true);
+		if (delegate.getClasspath() != null) {
+			for (File file : delegate.getClasspath()) {
+				fingerprint.addTree(file, false);
+			}
+		}
+
+		return fingerprint.finish();
+	}
+
+	private static java.util.jar.Manifest toJarManifest(Manifest manifest) {
+		java.util.jar.Manifest jarManifest = new java.util.jar.Manifest();
+		copy(manifest.getAttributes(), jarManifest.getMainAttributes());
+		for (Map.Entry<String, Attributes> section : manifest.getSections().entrySet()) {
+			java.util.jar.Attributes attributes = new java.util.jar.Attributes();
+			copy(section.getValue(), attributes);
+			jarManifest.getEntries().put(section.getKey(), attributes);
+		}
+
+		return jarManifest;
+	}
+
+	private static void copy(Attributes from, java.util.jar.Attributes to) {
+		for (Map.Entry<String, Object> attribute : from.entrySet()) {
+			to.putValue(attribute.getKey(), String.valueOf(attribute.getValue()));
+		}
+	}
+
+	/**
+	 * Converts a cached manifest. The file resolver is used to resolve the
+	 * paths given to {@link Manifest#writeTo(Object)} and {@code from}.
+	 */
+	static Manifest toManifest(java.util.jar.Manifest jarManifest, FileResolver fileResolver) {
+		DefaultManifest manifest = new DefaultManifest(fileResolver);
+		manifest.attributes(toMap(jarManifest.getMainAttributes()));
+		for (Map.Entry<String, java.util.jar.Attributes> section : jarManifest.getEntries().entrySet()) {
+			manifest.attributes(toMap(section.getValue()), section.getKey());
+		}
+
+		return manifest;
+	}
+
+	private static Map<String, Object> toMap(java.util.jar.Attributes attributes) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+			map.put(attribute.getKey().toString(), attribute.getValue());
+		}
+
+		return map;
+	}
+
+}
@@ -0,0 +1,526 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable graph of commits with their parents and generation numbers. The
+ * generation of a root commit is 1, the generation of any other commit is one
+ * more than the highest generation of its parents, so a commit can only reach
+ * commits with a lower generation. Reachability queries use this to stop
+ * walking as soon as the remaining commits are too old to reach the target.
+ * <p>
+ * The graph is closed under parents: with a commit it contains its whole
+ * history. A commit that is not in a graph containing {@code HEAD} is
+ * therefore not reachable from {@code HEAD}. Commits are kept sorted by id
+ * in flat arrays and addressed by their position. The graph is persisted in
+ * a binary file and extended by walking only the commits it does not contain
+ * yet.
+ */
+class CommitGraph {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CommitGraph.class);
+
+	private static final int MAGIC = 0x52434731; // RCG1
+
+	private static final int ID_LENGTH = Constants.OBJECT_ID_LENGTH;
+
+	private static final CommitGraph EMPTY = new CommitGraph(new byte[0], new int[0], new int[1], new int[0]);
+
+	/** The raw ids of all commits, sorted. */
+	private final byte[] ids;
+
+	private final int[] generations;
+
+	/** Start of the parents of each commit in {@link #parents}, plus an end entry. */
+	private final int[] parentStarts;
+
+	private final int[] parents;
+
+	private CommitGraph(byte[] ids, int[] generations, int[] parentStarts, int[] parents) {
+		super();
+		this.ids = ids;
+		this.generations = generations;
+		this.parentStarts = parentStarts;
+		this.parents = parents;
+	}
+
+	static CommitGraph empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Loads a graph from the given file. Returns an empty graph if the file
+	 * does not exist, cannot be read or was written for another key. The key
+	 * identifies the state of the repository the graph depends on beyond the
+	 * commits themselves, i.e. its shallow boundary.
+	 */
+	static CommitGraph load(File file, String key) {
+		if (!file.isFile()) {
+			return EMPTY;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || !key.equals(in.readUTF())) {
+					LOG.debug("Repository changed, discarding commit graph " + file);
+					return EMPTY;
+				}
+
+				int size = in.readInt();
+				byte[] ids = new byte[size * ID_LENGTH];
+				in.readFully(ids);
+				int[] generations = readInts(in, size);
+				int[] parentStarts = readInts(in, size + 1);
+				int[] parents = readInts(in, parentStarts[size]);
+				return new CommitGraph(ids, generations, parentStarts, parents);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not read commit graph " + file, e);
+			return EMPTY;
+		} catch (RuntimeException e) {
+			LOG.warn("Discarding corrupt commit graph " + file, e);
+			return EMPTY;
+		}
+	}
+
+	/**
+	 * Writes the graph for the given key. The file is replaced atomically.
+	 */
+	void store(File file, String key) throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeUTF(key);
+				out.writeInt(size());
+				out.write(ids);
+				writeInts(out, generations);
+				writeInts(out, parentStarts);
+				writeInts(out, parents);
+			} finally {
+				out.close();
+			}
+
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	private static int[] readInts(DataInputStream in, int count) throws IOException {
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = in.readInt();
+		}
+
+		return values;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	int size() {
+		return generations.length;
+	}
+
+	/**
+	 * Returns the position of the given commit or -1 if it is not in the
+	 * graph.
+	 */
+	int indexOf(AnyObjectId id) {
+		byte[] raw = new byte[ID_LENGTH];
+		id.copyRawTo(raw, 0);
+		int low = 0;
+		int high = size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(ids, mid * ID_LENGTH, raw, 0);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -1;
+	}
+
+	ObjectId getId(int commit) {
+		return ObjectId.fromRaw(ids, commit * ID_LENGTH);
+	}
+
+	int getGeneration(int commit) {
+		return generations[commit];
+	}
+
+	private static int compare(byte[] a, int aOffset, byte[] b, int bOffset) {
+		for (int i = 0; i < ID_LENGTH; i++) {
+			int cmp = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Returns a graph that also contains the given commits and their history,
+	 * or this graph if it already contains them. Only commits that are not in
+	 * this graph are parsed; the walk stops at known commits.
+	 */
+	CommitGraph update(ObjectReader reader, Collection<? extends AnyObjectId> tips) throws IOException {
+		Map<ObjectId, NewCommit> added = new HashMap<ObjectId, NewCommit>();
+		RevWalk walk = new RevWalk(reader);
+		try {
+			walk.setRetainBody(false);
+			Deque<RevCommit> stack = new ArrayDeque<RevCommit>();
+			for (AnyObjectId tip : tips) {
+				if (indexOf(tip) < 0) {
+					stack.push(walk.parseCommit(tip));
+				}
+			}
+
+			// post-order walk, a commit is added once all its parents are known
+			while (!stack.isEmpty()) {
+				RevCommit commit = stack.peek();
+				if (added.containsKey(commit)) {
+					stack.pop();
+					continue;
+				}
+
+				boolean ready = true;
+				int generation = 0;
+				for (RevCommit parent : commit.getParents()) {
+					int index = indexOf(parent);
+					if (index >= 0) {
+						generation = Math.max(generation, generations[index]);
+					} else {
+						NewCommit known = added.get(parent);
+						if (known != null) {
+							generation = Math.max(generation, known.generation);
+						} else {
+							walk.parseHeaders(parent);
+							stack.push(parent);
+							ready = false;
+						}
+					}
+				}
+
+				if (ready) {
+					stack.pop();
+					ObjectId[] parentIds = new ObjectId[commit.getParentCount()];
+					for (int i = 0; i < parentIds.length; i++) {
+						parentIds[i] = commit.getParent(i).copy();
+					}
+
+					added.put(commit.copy(), new NewCommit(generation + 1, parentIds));
+				}
+			}
+		} finally {
+			walk.release();
+		}
+
+		if (added.isEmpty()) {
+			return this;
+		}
+
+		return merge(added);
+	}
+
+	/**
+	 * Merges the given commits into a new graph, keeping the ids sorted.
+	 */
+	private CommitGraph merge(Map<ObjectId, NewCommit> added) {
+		List<ObjectId> addedIds = new ArrayList<ObjectId>(added.keySet());
+		Collections.sort(addedIds);
+		int size = size() + addedIds.size();
+		byte[] newIds = new byte[size * ID_LENGTH];
+		int[] newGenerations = new int[size];
+		int[] oldPositions = new int[size()];
+		Map<ObjectId, Integer> addedPositions = new HashMap<ObjectId, Integer>();
+		byte[] raw = new byte[ID_LENGTH];
+		int oldIndex = 0;
+		int addedIndex = 0;
+		for (int i = 0; i < size; i++) {
+			boolean takeOld;
+			if (addedIndex == addedIds.size()) {
+				takeOld = true;
+			} else if (oldIndex == size()) {
+				takeOld = false;
+			} else {
+				addedIds.get(addedIndex).copyRawTo(raw, 0);
+				takeOld = compare(ids, oldIndex * ID_LENGTH, raw, 0) < 0;
+			}
+
+			if (takeOld) {
+				System.arraycopy(ids, oldIndex * ID_LENGTH, newIds, i * ID_LENGTH, ID_LENGTH);
+				newGenerations[i] = generations[oldIndex];
+				oldPositions[oldIndex++] = i;
+			} else {
+				ObjectId id = addedIds.get(addedIndex++);
+				id.copyRawTo(newIds, i * ID_LENGTH);
+				newGenerations[i] = added.get(id).generation;
+				addedPositions.put(id, i);
+			}
+		}
+
+		int[] newParentStarts = new int[size + 1];
+		int[] newParents = new int[parents.length + countParents(added)];
+		int parentCount = 0;
+		oldIndex = 0;
+		for (int i = 0; i < size; i++) {
+			newParentStarts[i] = parentCount;
+			if (oldIndex < oldPositions.length && oldPositions[oldIndex] == i) {
+				for (int p = parentStarts[oldIndex]; p < parentStarts[oldIndex + 1]; p++) {
+					newParents[parentCount++] = oldPositions[parents[p]];
+				}
+
+				oldIndex++;
+			} else {
+				ObjectId id = ObjectId.fromRaw(newIds, i * ID_LENGTH);
+				for (ObjectId parent : added.get(id).parents) {
+					Integer position = addedPositions.get(parent);
+					newParents[parentCount++] = position != null ? position.intValue() : oldPositions[indexOf(parent)];
+				}
+			}
+		}
+
+		newParentStarts[size] = parentCount;
+		return new CommitGraph(newIds, newGenerations, newParentStarts, newParents);
+	}
+
+	private static int countParents(Map<ObjectId, NewCommit> added) {
+		int count = 0;
+		for (NewCommit commit : added.values()) {
+			count += commit.parents.length;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Starts an incremental reachability walk from the given commit.
+	 */
+	Walk walk(int start) {
+		return new Walk(start);
+	}
+
+	/**
+	 * Returns the number of commits that are reachable from {@code head} but
+	 * not from {@code base}, like {@code git rev-list --count base..head}.
+	 * Only the commits down to the generation where the histories meet are
+	 * visited.
+	 */
+	int countExclusive(int head, int base) {
+		final int headFlag = 1;
+		final int baseFlag = 2;
+		byte[] flags = new byte[size()];
+		BitSet queued = new BitSet(size());
+		GenerationQueue queue = new GenerationQueue();
+		flags[head] |= headFlag;
+		flags[base] |= baseFlag;
+		queue.add(head);
+		queued.set(head);
+		if (base != head) {
+			queue.add(base);
+			queued.set(base);
+		}
+
+		// number of queued commits only reachable from head; once there are
+		// none, the remaining commits cannot contribute
+		int interesting = flags[head] == headFlag ? 1 : 0;
+		int count = 0;
+		while (interesting > 0) {
+			int commit = queue.poll();
+			byte flag = flags[commit];
+			if (flag == headFlag) {
+				interesting--;
+				count++;
+			}
+
+			for (int p = parentStarts[commit]; p < parentStarts[commit + 1]; p++) {
+				int parent = parents[p];
+				byte old = flags[parent];
+				byte updated = (byte) (old | flag);
+				if (!queued.get(parent)) {
+					queued.set(parent);
+					flags[parent] = updated;
+					queue.add(parent);
+					if (updated == headFlag) {
+						interesting++;
+					}
+				} else if (old != updated) {
+					// a queued commit that was only reachable from head
+					// turned out to be reachable from base as well
+					flags[parent] = updated;
+					if (old == headFlag) {
+						interesting--;
+					}
+				}
+			}
+		}
+
+		return count;
+	}
+
+	private static final class NewCommit {
+
+		private final int generation;
+
+		private final ObjectId[] parents;
+
+		NewCommit(int generation, ObjectId[] parents) {
+			super();
+			this.generation = generation;
+			this.parents = parents;
+		}
+	}
+
+	/**
+	 * Reachability walk from a fixed start commit. The walk only advances as
+	 * far as needed to answer a query and keeps its state for the next one,
+	 * so answering many queries costs at most one walk down to the lowest
+	 * generation asked for.
+	 */
+	final class Walk {
+
+		private final BitSet seen = new BitSet(size());
+
+		private final GenerationQueue queue = new GenerationQueue();
+
+		Walk(int start) {
+			super();
+			seen.set(start);
+			queue.add(start);
+		}
+
+		/**
+		 * Returns whether the given commit is reachable from the start commit.
+		 */
+		boolean reaches(int commit) {
+			int generation = generations[commit];
+			// parents have lower generations than their children, so a commit
+			// is found once all queued commits above its generation were
+			// expanded
+			while (!seen.get(commit) && !queue.isEmpty() && generations[queue.peek()] > generation) {
+				int next = queue.poll();
+				for (int p = parentStarts[next]; p < parentStarts[next + 1]; p++) {
+					int parent = parents[p];
+					if (!seen.get(parent)) {
+						seen.set(parent);
+						queue.add(parent);
+					}
+				}
+			}
+
+			return seen.get(commit);
+		}
+	}
+
+	/**
+	 * Binary max-heap of commit positions ordered by generation.
+	 */
+	private final class GenerationQueue {
+
+		private int[] heap = new int[64];
+
+		private int size;
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		int peek() {
+			return heap[0];
+		}
+
+		void add(int commit) {
+			if (size == heap.length) {
+				heap = Arrays.copyOf(heap, size * 2);
+			}
+
+			int pos = size++;
+			while (pos > 0) {
+				int parent = (pos - 1) >>> 1;
+				if (generations[heap[parent]] >= generations[commit]) {
+					break;
+				}
+
+				heap[pos] = heap[parent];
+				pos = parent;
+			}
+
+			heap[pos] = commit;
+		}
+
+		int poll() {
+			int result = heap[0];
+			int last = heap[--size];
+			int pos = 0;
+			while (true) {
+				int child = 2 * pos + 1;
+				if (child >= size) {
+					break;
+				}
+
+				if (child + 1 < size && generations[heap[child + 1]] > generations[heap[child]]) {
+					child++;
+				}
+
+				if (generations[heap[child]] <= generations[last]) {
+					break;
+				}
+
+				heap[pos] = heap[child];
+				pos = child;
+			}
+
+			heap[pos] = last;
+			return result;
+		}
+	}
+
+}
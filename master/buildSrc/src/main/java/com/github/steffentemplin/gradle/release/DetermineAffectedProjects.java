@@ -0,0 +1,112 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.specs.Specs;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the paths of the projects that changed since their last release,
+ * one per line, so that CI can skip the others. A project changed if the tree
+ * of its directory at {@code HEAD} differs from the one at its last release
+ * tag, or if it has no release reachable from {@code HEAD}. Only committed
+ * changes are considered, and projects that merely depend on a changed
+ * project are not listed.
+ */
+public class DetermineAffectedProjects extends DefaultTask {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DetermineAffectedProjects.class);
+
+	private File outputFile;
+
+	public DetermineAffectedProjects() {
+		super();
+		// the result depends on commits and tags outside of the build
+		getOutputs().upToDateWhen(Specs.satisfyNone());
+	}
+
+	/**
+	 * Returns the file the paths of the affected projects are written to, by
+	 * default {@code release/affected-projects.txt} in the current build
+	 * directory.
+	 */
+	@OutputFile
+	public File getOutputFile() {
+		if (outputFile == null) {
+			return new File(getProject().getBuildDir(), "release/affected-projects.txt");
+		}
+
+		return outputFile;
+	}
+
+	public void setOutputFile(File outputFile) {
+		this.outputFile = outputFile;
+	}
+
+	@TaskAction
+	public void determine() throws IOException {
+		ReleaseContext context = ReleaseContext.get(getProject());
+		ReleaseHistory history = context.getReleaseHistory();
+		ObjectId head = history.getHeadCommit();
+		if (head == null) {
+			throw new GradleException("Cannot determine affected projects, HEAD does not point to a commit");
+		}
+
+		TreeIdCache cache = context.getTreeIdCache();
+		Set<String> affected = new TreeSet<String>();
+		int count = 0;
+		ObjectReader reader = context.getGit().getRepository().newObjectReader();
+		try {
+			for (Project project : getProject().getAllprojects()) {
+				if (!(project.getVersion() instanceof LazyProjectVersion)) {
+					continue;
+				}
+
+				count++;
+				ObjectId release = history.getLastReleaseCommit(project.getName());
+				if (release == null) {
+					LOG.info("Project " + project.getPath() + " has no release reachable from HEAD");
+					affected.add(project.getPath());
+					continue;
+				}
+
+				String path = TreeIdCache.relativePath(context.getRepositoryDir(), project.getProjectDir());
+				ObjectId releaseTree = cache.getTreeId(reader, release, path);
+				ObjectId headTree = cache.getTreeId(reader, head, path);
+				if (releaseTree == null || !releaseTree.equals(headTree)) {
+					LOG.info("Project " + project.getPath() + " changed since its last release");
+					affected.add(project.getPath());
+				}
+			}
+		} finally {
+			reader.release();
+		}
+
+		File file = getOutputFile();
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			for (String path : affected) {
+				writer.println(path);
+			}
+		} finally {
+			writer.close();
+		}
+
+		LOG.info(affected.size() + " of " + count + " projects changed since their last release, see " + file);
+	}
+
+}
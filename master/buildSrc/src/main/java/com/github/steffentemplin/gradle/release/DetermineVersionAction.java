@@ -1,15 +1,9 @@
 package com.github.steffentemplin.gradle.release;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
 
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.ListBranchCommand.ListMode;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.Ref;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
@@ -24,48 +18,102 @@ public class DetermineVersionAction implements Action<Project> {
 	
 	private static final String RELEASE_QUALIFIER = "REL";
 
-	private static final Version DEFAULT_VERSION = new Version(1, 0, 0, DEV_QUALIFIER);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final Version DEFAULT_VERSION = new Version(1, 0, 0, DEV_QUALIFIER).intern();
+
+	private final ReleaseContext context;
+
+	public DetermineVersionAction(ReleaseContext context) {
+		super();
+		this.context = context;
+	}
 
 	@Override
 	public void execute(Project project) {
-		File rootDir = project.getRootDir();
-		Git git;
+		Version currentVersion = determineVersion(project);
+		project.setVersion(currentVersion);
+		LOG.info("Version was set to " + currentVersion + " for project " + project.getName());
+	}
+	
+	/**
+	 * Determines the version of the given project. If a version manifest is
+	 * given, the version is taken from it. Otherwise versions are looked up in
+	 * the persistent version cache first, so the repository is only opened if
+	 * its ref state changed since the cache was written. Failures of the
+	 * background prefetch of the {@link ReleaseContext} are only reported if
+	 * neither answered the version.
+	 */
+	Version determineVersion(Project project) {
+		VersionTimings timings = context.getTimings();
+		VersionTimings.Probe probe = timings.start(VersionTimings.Phase.DETERMINE_VERSION);
+		VersionManifest manifest = context.getVersionManifest();
+		if (manifest != null) {
+			Version manifestVersion = manifest.getVersion(project.getPath());
+			if (manifestVersion == null) {
+				throw new GradleException("Version manifest " + manifest.getFile() + " does not contain project " + project.getPath());
+			}
+			
+			timings.versionDetermined(probe, project.getPath(), 0, 0, manifestVersion, true);
+			return manifestVersion;
+		}
+		
+		VersionCache versionCache = context.getVersionCache();
+		String cacheKey = getCacheKey(project);
+		if (versionCache != null) {
+			Version cachedVersion = versionCache.get(cacheKey);
+			if (cachedVersion != null) {
+				LOG.debug("Using cached version " + cachedVersion + " for project " + project.getName());
+				timings.versionDetermined(probe, project.getPath(), 0, 0, cachedVersion, true);
+				return cachedVersion;
+			}
+		}
+		
+		Version currentVersion;
+		int scannedRefs;
+		int matchedVersions;
 		try {
-			git = Git.open(rootDir.getParentFile());
-			String currentBranch = git.getRepository().getBranch();
+			// the first project waits for the rest of the background prefetch
+			context.awaitPrefetch();
+			RefIndex refIndex = context.getRefIndex();
+			String currentBranch = context.getCurrentBranch();
 			
-			Version currentVersion;
 			if (currentBranch.equals("master")) {
 				// TODO: abort?
-				currentVersion = handleMaster(project, git);
+				currentVersion = handleMaster(project, refIndex);
 			} else if (currentBranch.equals("develop")) {
-				currentVersion = handleDevelop(project, git);
+				currentVersion = handleDevelop(project, refIndex);
 			} else {
-				Matcher releaseBranch = getReleaseBranchPattern(project).matcher(currentBranch);
-				if (releaseBranch.matches()) {
-					currentVersion = handleRelease(project, git, Version.parse(releaseBranch.group(1)));
+				Version releaseBranch = RefIndex.matchBranch(currentBranch, project.getName(), RefIndex.RELEASE_INFIX);
+				if (releaseBranch != null) {
+					currentVersion = handleRelease(project, releaseBranch);
 				} else {
-					Matcher hotfixBranch = getHotfixBranchPattern(project).matcher(currentBranch);
-					if (hotfixBranch.matches()) {
-						currentVersion = handleHotfix(project, git, Version.parse(hotfixBranch.group(1)));
+					Version hotfixBranch = RefIndex.matchBranch(currentBranch, project.getName(), RefIndex.HOTFIX_INFIX);
+					if (hotfixBranch != null) {
+						currentVersion = handleHotfix(project, hotfixBranch);
 					} else {
 						// behavior is the same for develop, feature branches, etc.
-						currentVersion = handleDevelop(project, git);
+						currentVersion = handleDevelop(project, refIndex);
 					}
 				}
 			}
 			
-			project.setVersion(currentVersion);
-			LOG.info("Version was set to " + currentVersion + " for project " + project.getName());
+			scannedRefs = refIndex.getScannedRefCount(project.getName());
+			matchedVersions = refIndex.getMatchedVersionCount(project.getName());
 		} catch (IOException e) {
 			throw new GradleException("Could not determine version for project " + project.getName(), e);
-		} catch (GitAPIException e) {
-			throw new GradleException("Could not determine version for project " + project.getName(), e);
 		}
+		
+		if (versionCache != null) {
+			versionCache.put(cacheKey, currentVersion);
+		}
+		
+		timings.versionDetermined(probe, project.getPath(), scannedRefs, matchedVersions, currentVersion, false);
+		return currentVersion;
 	}
 	
-	private Version handleMaster(Project project, Git git) throws GitAPIException {
-		Version lastRelease = getLastRelease(project, git);
+	private Version handleMaster(Project project, RefIndex refIndex) throws IOException {
+		Version lastRelease = getLastRelease(project, refIndex);
 		if (lastRelease == null) {
 			return DEFAULT_VERSION;
 		}
@@ -73,9 +121,9 @@ public class DetermineVersionAction implements Action<Project> {
 		return incrementDev(lastRelease);
 	}
 	
-	private Version handleDevelop(Project project, Git git) throws GitAPIException {
-		Version lastRelease = getLastRelease(project, git);
-		Version nextRelease = getNextRelease(project, git);
+	private Version handleDevelop(Project project, RefIndex refIndex) throws IOException {
+		Version lastRelease = getLastRelease(project, refIndex);
+		Version nextRelease = refIndex.getNextRelease(project.getName());
 		if (lastRelease == null) {
 			if (nextRelease == null) {
 				return DEFAULT_VERSION;
@@ -95,104 +143,107 @@ public class DetermineVersionAction implements Action<Project> {
 		}
 	}
 	
-	private Version handleHotfix(Project project, Git git, Version version) throws IOException {
-		if (isReleaseBuild(project)) {
-			version.setQualifier(RELEASE_QUALIFIER);
-		} else {
-			version.setQualifier(DEV_QUALIFIER);
+	/**
+	 * Returns the highest release tag that is reachable from {@code HEAD}, or
+	 * the highest release tag at all if reachability is disabled.
+	 */
+	private Version getLastRelease(Project project, RefIndex refIndex) throws IOException {
+		if (!context.isReachabilityEnabled()) {
+			return refIndex.getLastRelease(project.getName());
 		}
 		
-		return version;
+		return context.getReachableLastRelease(project.getName());
 	}
 	
-	private Version handleRelease(Project project, Git git, Version version) throws IOException {
+	private Version handleHotfix(Project project, Version version) {
 		if (isReleaseBuild(project)) {
-			version.setQualifier(RELEASE_QUALIFIER);
-		} else {
-			version.setQualifier(DEV_QUALIFIER);
+			return version.withQualifier(RELEASE_QUALIFIER);
 		}
 		
-		return version;
-	}
-	
-	private boolean isReleaseBuild(Project project) {
-		return project.hasProperty("release");
+		return version.withQualifier(DEV_QUALIFIER);
 	}
 	
-	private Version getLastRelease(Project project, Git git) throws GitAPIException {
-		Version lastRelease = null;
-		Pattern releaseTag = getReleaseTagPattern(project);
-		List<Ref> tags = git.tagList().call();
-		for (Ref tag : tags) {
-			String tagName = tag.getName();
-			int idx = tagName.lastIndexOf('/');
-			if (idx >= 0) {
-				try {
-					tagName = tagName.substring(idx + 1);
-				} catch (IndexOutOfBoundsException e) {
-					LOG.warn("Error while parsing tag name", e);
-					continue;
-				}
-			}
-			
-			Matcher matcher = releaseTag.matcher(tagName);
-			if (matcher.matches()) {
-				Version version = Version.parse(matcher.group(1));
-				if (lastRelease == null || version.compareTo(lastRelease) > 0) {
-					lastRelease = version;
-				}
-			}
+	private Version handleRelease(Project project, Version version) {
+		if (isReleaseBuild(project)) {
+			return version.withQualifier(RELEASE_QUALIFIER);
 		}
 		
-		return lastRelease;
+		return version.withQualifier(DEV_QUALIFIER);
 	}
 	
-	private Version getNextRelease(Project project, Git git) throws GitAPIException {
-		Version nextRelease = null;
-		Pattern releaseBranch = getReleaseBranchPattern(project);
-		List<Ref> branches = git.branchList().setListMode(ListMode.ALL).call(); // TODO: list remote branches only
-		for (Ref branch : branches) {
-			String branchName = branch.getName();
-			int idx = branchName.lastIndexOf('/');
-			if (idx >= 0) {
-				try {
-					branchName = branchName.substring(idx + 1);
-				} catch (IndexOutOfBoundsException e) {
-					LOG.warn("Error while parsing branch name", e);
-					continue;
-				}
+	/**
+	 * Returns a fingerprint of the refs the version of the given project
+	 * depends on for the current branch, without determining the version. On
+	 * release and hotfix branches the version only depends on the branch
+	 * name, so the fingerprint is empty. Versions from a manifest only depend
+	 * on the commit it was written for. Otherwise the fingerprint of the ref
+	 * state of the whole repository is used, which costs a walk over the ref
+	 * files but no ref queries. Only if the repository has no plain
+	 * {@code .git} directory, the release refs of the project are queried and
+	 * digested; if only tags reachable from {@code HEAD} count, the digest
+	 * includes the last release, because a new commit can change it without
+	 * changing any ref.
+	 */
+	String getRefFingerprint(Project project) {
+		VersionManifest manifest = context.getVersionManifest();
+		if (manifest != null) {
+			return "manifest " + manifest.getCommit();
+		}
+		
+		try {
+			String currentBranch = context.getCurrentBranch();
+			if (RefIndex.matchBranch(currentBranch, project.getName(), RefIndex.RELEASE_INFIX) != null
+					|| RefIndex.matchBranch(currentBranch, project.getName(), RefIndex.HOTFIX_INFIX) != null) {
+				return "";
 			}
 			
-			Matcher matcher = releaseBranch.matcher(branchName);
-			if (matcher.matches()) {
-				Version version = Version.parse(matcher.group(1));
-				if (nextRelease == null || version.compareTo(nextRelease) > 0) {
-					nextRelease = version;
-				}
+			String refState = context.getRefStateFingerprint();
+			if (refState != null) {
+				return refState;
+			}
+			
+			RefIndex refIndex = context.getRefIndex();
+			MessageDigest digest = RefState.newDigest();
+			update(digest, "tags", refIndex.getReleaseTags(project.getName()));
+			update(digest, "branches", refIndex.getReleaseBranches(project.getName()));
+			if (context.isReachabilityEnabled()) {
+				digest.update(("last " + context.getReachableLastRelease(project.getName())).getBytes(UTF_8));
 			}
+			
+			return RefState.toHex(digest.digest());
+		} catch (IOException e) {
+			throw new GradleException("Could not determine release refs of project " + project.getName(), e);
 		}
-		
-		return nextRelease;
 	}
 	
-	private static Version incrementDev(Version version) {
-		Version newVersion = version.clone();
-		newVersion.incrementMinor();
-		newVersion.resetMicro();
-		newVersion.setQualifier(DEV_QUALIFIER);
-		return newVersion;
+	private static void update(MessageDigest digest, String name, VersionIndex versions) {
+		digest.update(name.getBytes(UTF_8));
+		for (int i = 0; i < versions.size(); i++) {
+			digest.update((byte) '\n');
+			digest.update(versions.get(i).toString().getBytes(UTF_8));
+		}
+		
+		digest.update((byte) 0);
 	}
 	
-	private Pattern getReleaseBranchPattern(Project project) {
-		return Pattern.compile(project.getName() + "-release-(" + Version.VERSION_PATTERN + ')');
+	boolean isReleaseBuild(Project project) {
+		return project.hasProperty("release");
 	}
 	
-	private Pattern getHotfixBranchPattern(Project project) {
-		return Pattern.compile(project.getName() + "-hotfix-(" + Version.VERSION_PATTERN + ')');
+	/**
+	 * The cache key contains the release flag, because it determines the
+	 * qualifier on release and hotfix branches.
+	 */
+	private String getCacheKey(Project project) {
+		if (isReleaseBuild(project)) {
+			return project.getPath() + "@release";
+		}
+		
+		return project.getPath();
 	}
 	
-	private Pattern getReleaseTagPattern(Project project) {
-		return Pattern.compile(project.getName() + "-(" + Version.VERSION_PATTERN + ')');
+	private static Version incrementDev(Version version) {
+		return version.withNextMinor().withQualifier(DEV_QUALIFIER).intern();
 	}
 
 }
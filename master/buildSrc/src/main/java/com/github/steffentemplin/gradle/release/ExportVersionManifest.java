@@ -0,0 +1,73 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.specs.Specs;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the versions of all projects that apply the release plugin to a
+ * {@link VersionManifest}. Other builds of the same commit can read it with
+ * {@code -Prelease.manifest=<file>} instead of determining the versions.
+ */
+public class ExportVersionManifest extends DefaultTask {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ExportVersionManifest.class);
+
+	private File manifestFile;
+
+	public ExportVersionManifest() {
+		super();
+		// versions depend on refs outside of the build
+		getOutputs().upToDateWhen(Specs.satisfyNone());
+	}
+
+	/**
+	 * Returns the file the manifest is written to, by default
+	 * {@code release/version-manifest.properties} in the current build
+	 * directory.
+	 */
+	@OutputFile
+	public File getManifestFile() {
+		if (manifestFile == null) {
+			return new File(getProject().getBuildDir(), "release/version-manifest.properties");
+		}
+
+		return manifestFile;
+	}
+
+	public void setManifestFile(File manifestFile) {
+		this.manifestFile = manifestFile;
+	}
+
+	@TaskAction
+	public void export() throws IOException {
+		Map<String, Version> versions = new TreeMap<String, Version>();
+		for (Project project : getProject().getAllprojects()) {
+			Object version = project.getVersion();
+			if (version instanceof LazyProjectVersion) {
+				versions.put(project.getPath(), ((LazyProjectVersion) version).get());
+			}
+		}
+
+		ReleaseContext context = ReleaseContext.get(getProject());
+		String commit = context.getHeadCommit();
+		if (commit == null) {
+			throw new GradleException("Cannot export versions, HEAD does not point to a commit");
+		}
+
+		File file = getManifestFile();
+		VersionManifest.store(file, commit, context.isReleaseBuild(), versions);
+		LOG.info("Versions of " + versions.size() + " projects were written to " + file);
+	}
+
+}
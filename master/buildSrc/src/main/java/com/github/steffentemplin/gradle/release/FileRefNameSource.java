@@ -0,0 +1,372 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link RefNameSource} that reads ref names directly from the files of a
+ * {@code .git} directory. {@code packed-refs} is memory-mapped and its names
+ * are streamed as views on the mapped bytes; loose refs are found by listing
+ * the {@code refs} directories. No {@code Ref} objects are created and no
+ * object ids are parsed. A sorted {@code packed-refs} file is searched for
+ * the first name with the requested prefix instead of being scanned.
+ */
+class FileRefNameSource implements RefNameSource {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte[] SORTED_TRAIT = "sorted".getBytes(UTF_8);
+
+	private final File gitDir;
+
+	FileRefNameSource(File gitDir) {
+		super();
+		this.gitDir = gitDir;
+	}
+
+	/**
+	 * Returns whether the given {@code .git} directory uses the plain file
+	 * layout this source understands. Reftable repositories and linked work
+	 * trees must be read through JGit.
+	 */
+	static boolean isSupported(File gitDir) {
+		return gitDir != null && !new File(gitDir, "reftable").exists() && !new File(gitDir, "commondir").exists();
+	}
+
+	@Override
+	public int visit(String prefix, Visitor visitor) throws IOException {
+		List<String> looseRefs = new ArrayList<String>();
+		int slash = prefix.lastIndexOf('/');
+		collectLooseRefs(new File(gitDir, prefix.substring(0, slash + 1)), prefix.substring(0, slash + 1), prefix.substring(slash + 1), looseRefs);
+		Collections.sort(looseRefs);
+		int count = visitPackedRefs(prefix, looseRefs, visitor);
+		for (String looseRef : looseRefs) {
+			visitor.visit(looseRef);
+		}
+
+		return count + looseRefs.size();
+	}
+
+	/**
+	 * Streams the names in {@code packed-refs} that start with the given
+	 * prefix, skipping names that also exist as loose refs.
+	 */
+	private int visitPackedRefs(String prefix, List<String> looseRefs, Visitor visitor) throws IOException {
+		File packedRefs = new File(gitDir, "packed-refs");
+		if (!packedRefs.isFile()) {
+			return 0;
+		}
+
+		RandomAccessFile file = new RandomAccessFile(packedRefs, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size == 0) {
+				return 0;
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			return visitPackedRefs(buffer, prefix.getBytes(UTF_8), looseRefs, visitor);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Streams the matching names of the given {@code packed-refs} content. If
+	 * the header declares the file as sorted, the first match is found by
+	 * binary search and the scan stops after the last match.
+	 */
+	static int visitPackedRefs(ByteBuffer buffer, byte[] prefix, List<String> looseRefs, Visitor visitor) {
+		ByteSequence name = new ByteSequence(buffer);
+		int count = 0;
+		int limit = buffer.limit();
+		int pos = 0;
+		boolean sorted = false;
+		if (limit > 0 && buffer.get(0) == '#') {
+			int headerEnd = lineEnd(buffer, 0);
+			sorted = hasTrait(buffer, headerEnd, SORTED_TRAIT);
+			pos = headerEnd + 1;
+		}
+
+		if (sorted) {
+			pos = lowerBound(buffer, pos, prefix);
+		}
+
+		while (pos < limit) {
+			int lineEnd = lineEnd(buffer, pos);
+			byte first = buffer.get(pos);
+			if (first != '#' && first != '^') {
+				int nameStart = nameStart(buffer, pos, lineEnd);
+				int nameEnd = nameEnd(buffer, nameStart, lineEnd);
+				if (nameEnd - nameStart >= prefix.length && startsWith(buffer, nameStart, prefix)) {
+					CharSequence refName = name.reset(nameStart, nameEnd);
+					if (!contains(looseRefs, refName)) {
+						visitor.visit(refName);
+						count++;
+					}
+				} else if (sorted) {
+					break;
+				}
+			}
+
+			pos = lineEnd + 1;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the start of the first ref line at or after {@code from} whose
+	 * name is not less than the given prefix. {@code from} must be the start
+	 * of a ref line.
+	 */
+	private static int lowerBound(ByteBuffer buffer, int from, byte[] prefix) {
+		int limit = buffer.limit();
+		int low = from;
+		int high = limit;
+		while (low < high) {
+			int lineStart = lineStart(buffer, low, (low + high) >>> 1);
+			if (buffer.get(lineStart) == '^') {
+				// peeled lines belong to the ref on the previous line
+				lineStart = lineStart(buffer, low, lineStart - 1);
+			}
+
+			int lineEnd = lineEnd(buffer, lineStart);
+			int nameStart = nameStart(buffer, lineStart, lineEnd);
+			if (compare(buffer, nameStart, nameEnd(buffer, nameStart, lineEnd), prefix) < 0) {
+				low = lineEnd + 1;
+				if (low < limit && buffer.get(low) == '^') {
+					low = lineEnd(buffer, low) + 1;
+				}
+			} else {
+				high = lineStart;
+			}
+		}
+
+		return Math.min(low, limit);
+	}
+
+	private static int lineStart(ByteBuffer buffer, int from, int pos) {
+		while (pos > from && buffer.get(pos - 1) != '\n') {
+			pos--;
+		}
+
+		return pos;
+	}
+
+	private static int lineEnd(ByteBuffer buffer, int pos) {
+		int limit = buffer.limit();
+		while (pos < limit && buffer.get(pos) != '\n') {
+			pos++;
+		}
+
+		return pos;
+	}
+
+	private static int nameStart(ByteBuffer buffer, int lineStart, int lineEnd) {
+		int pos = lineStart;
+		while (pos < lineEnd && buffer.get(pos) != ' ') {
+			pos++;
+		}
+
+		return Math.min(pos + 1, lineEnd);
+	}
+
+	private static int nameEnd(ByteBuffer buffer, int nameStart, int lineEnd) {
+		if (lineEnd > nameStart && buffer.get(lineEnd - 1) == '\r') {
+			return lineEnd - 1;
+		}
+
+		return lineEnd;
+	}
+
+	/**
+	 * Compares a name with a prefix in the byte order git sorts
+	 * {@code packed-refs} by. Names starting with the prefix compare as equal.
+	 */
+	private static int compare(ByteBuffer buffer, int nameStart, int nameEnd, byte[] prefix) {
+		int length = Math.min(nameEnd - nameStart, prefix.length);
+		for (int i = 0; i < length; i++) {
+			int b1 = buffer.get(nameStart + i) & 0xff;
+			int b2 = prefix[i] & 0xff;
+			if (b1 != b2) {
+				return b1 - b2;
+			}
+		}
+
+		return nameEnd - nameStart < prefix.length ? -1 : 0;
+	}
+
+	/**
+	 * Checks whether the header line ending at the given index contains the
+	 * given space-separated trait.
+	 */
+	private static boolean hasTrait(ByteBuffer buffer, int headerEnd, byte[] trait) {
+		int last = headerEnd - trait.length;
+		for (int i = 1; i <= last; i++) {
+			if (buffer.get(i - 1) == ' ' && startsWith(buffer, i, trait)) {
+				int end = i + trait.length;
+				if (end == headerEnd || buffer.get(end) == ' ' || buffer.get(end) == '\r') {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Binary search of a ref name in a sorted list without converting the
+	 * name to a string.
+	 */
+	private static boolean contains(List<String> sortedNames, CharSequence name) {
+		int low = 0;
+		int high = sortedNames.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(sortedNames.get(mid), name);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static int compare(String s1, CharSequence s2) {
+		int length = Math.min(s1.length(), s2.length());
+		for (int i = 0; i < length; i++) {
+			char c1 = s1.charAt(i);
+			char c2 = s2.charAt(i);
+			if (c1 != c2) {
+				return c1 - c2;
+			}
+		}
+
+		return s1.length() - s2.length();
+	}
+
+	private static boolean startsWith(ByteBuffer buffer, int pos, byte[] prefix) {
+		for (int i = 0; i < prefix.length; i++) {
+			if (buffer.get(pos + i) != prefix[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Collects the loose refs below the given directory whose file name
+	 * starts with the given name prefix. Sub-directories are only filtered on
+	 * the first level.
+	 */
+	private static void collectLooseRefs(File dir, String path, String namePrefix, List<String> refs) {
+		String[] names = dir.list();
+		if (names == null) {
+			return;
+		}
+
+		for (String name : names) {
+			if (!name.startsWith(namePrefix) || name.endsWith(".lock")) {
+				continue;
+			}
+
+			File file = new File(dir, name);
+			if (file.isDirectory()) {
+				collectLooseRefs(file, path + name + '/', "", refs);
+			} else {
+				refs.add(path + name);
+			}
+		}
+	}
+
+	/**
+	 * Reusable char sequence view on a region of a byte buffer. Ref names are
+	 * almost always ASCII; names with other bytes are decoded as UTF-8.
+	 */
+	private static final class ByteSequence implements CharSequence {
+
+		private final ByteBuffer buffer;
+
+		private int start;
+
+		private int length;
+
+		private String decoded;
+
+		ByteSequence(ByteBuffer buffer) {
+			super();
+			this.buffer = buffer;
+		}
+
+		CharSequence reset(int start, int end) {
+			this.start = start;
+			this.length = end - start;
+			this.decoded = null;
+			for (int i = start; i < end; i++) {
+				if (buffer.get(i) < 0) {
+					return toString();
+				}
+			}
+
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+
+			return (char) buffer.get(start + index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end) {
+				throw new IndexOutOfBoundsException(start + ", " + end);
+			}
+
+			char[] chars = new char[end - start];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = (char) buffer.get(this.start + start + i);
+			}
+
+			return new String(chars);
+		}
+
+		@Override
+		public String toString() {
+			if (decoded == null) {
+				byte[] bytes = new byte[length];
+				for (int i = 0; i < length; i++) {
+					bytes[i] = buffer.get(start + i);
+				}
+
+				decoded = new String(bytes, UTF_8);
+			}
+
+			return decoded;
+		}
+	}
+
+}
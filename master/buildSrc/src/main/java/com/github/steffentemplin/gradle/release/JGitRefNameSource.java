@@ -0,0 +1,39 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * {@link RefNameSource} backed by JGit's ref database. It is used for
+ * repository layouts that {@link FileRefNameSource} does not understand.
+ */
+class JGitRefNameSource implements RefNameSource {
+
+	private final Repository repository;
+
+	JGitRefNameSource(Repository repository) {
+		super();
+		this.repository = repository;
+	}
+
+	@Override
+	public int visit(String prefix, Visitor visitor) throws IOException {
+		int slash = prefix.lastIndexOf('/');
+		String namespace = prefix.substring(0, slash + 1);
+		Map<String, Ref> refs = repository.getRefDatabase().getRefs(namespace);
+		int count = 0;
+		for (String name : refs.keySet()) {
+			String refName = namespace + name;
+			if (refName.startsWith(prefix)) {
+				visitor.visit(refName);
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.github.steffentemplin.gradle.release;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the release plugin. This class must only be
+ * used if {@link VersionTimings#JFR_AVAILABLE} is {@code true}; callers pass
+ * events around as plain objects, so that loading them does not require JFR.
+ */
+final class JfrEvents {
+
+	private JfrEvents() {
+		super();
+	}
+
+	static Object begin(VersionTimings.Phase phase) {
+		Event event;
+		switch (phase) {
+		case REPOSITORY_OPEN:
+			event = new RepositoryOpenEvent();
+			break;
+		case REF_QUERY:
+			event = new RefQueryEvent();
+			break;
+		default:
+			event = new DetermineVersionEvent();
+			break;
+		}
+
+		event.begin();
+		return event;
+	}
+
+	static void commitRepositoryOpen(Object event, String repository) {
+		RepositoryOpenEvent repositoryOpen = (RepositoryOpenEvent) event;
+		repositoryOpen.end();
+		if (repositoryOpen.shouldCommit()) {
+			repositoryOpen.repository = repository;
+			repositoryOpen.commit();
+		}
+	}
+
+	static void commitRefQuery(Object event, int refCount, int matchedVersionCount) {
+		RefQueryEvent refQuery = (RefQueryEvent) event;
+		refQuery.end();
+		if (refQuery.shouldCommit()) {
+			refQuery.refCount = refCount;
+			refQuery.matchedVersionCount = matchedVersionCount;
+			refQuery.commit();
+		}
+	}
+
+	static void commitDetermineVersion(Object event, String project, int refsScanned, int matchedVersions, String version, boolean cached) {
+		DetermineVersionEvent determineVersion = (DetermineVersionEvent) event;
+		determineVersion.end();
+		if (determineVersion.shouldCommit()) {
+			determineVersion.project = project;
+			determineVersion.refsScanned = refsScanned;
+			determineVersion.matchedVersions = matchedVersions;
+			determineVersion.version = version;
+			determineVersion.cached = cached;
+			determineVersion.commit();
+		}
+	}
+
+	@Name("com.github.steffentemplin.release.RepositoryOpen")
+	@Label("Open Repository")
+	@Category({ "Gradle", "Release Plugin" })
+	static class RepositoryOpenEvent extends Event {
+
+		@Label("Repository")
+		String repository;
+	}
+
+	@Name("com.github.steffentemplin.release.RefQuery")
+	@Label("Query Release Refs")
+	@Category({ "Gradle", "Release Plugin" })
+	static class RefQueryEvent extends Event {
+
+		@Label("Refs")
+		int refCount;
+
+		@Label("Matched Versions")
+		int matchedVersionCount;
+	}
+
+	@Name("com.github.steffentemplin.release.DetermineVersion")
+	@Label("Determine Version")
+	@Category({ "Gradle", "Release Plugin" })
+	static class DetermineVersionEvent extends Event {
+
+		@Label("Project")
+		String project;
+
+		@Label("Refs Scanned")
+		int refsScanned;
+
+		@Label("Matched Versions")
+		int matchedVersions;
+
+		@Label("Version")
+		String version;
+
+		@Label("Cached")
+		boolean cached;
+	}
+
+}
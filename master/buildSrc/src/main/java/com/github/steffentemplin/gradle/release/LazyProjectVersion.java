@@ -0,0 +1,53 @@
+package com.github.steffentemplin.gradle.release;
+
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Value of {@code project.version} that determines the actual version on
+ * first use, e.g. when the jar manifest is written. Projects whose version is
+ * never read, such as projects that are not part of the task graph, never
+ * touch the repository.
+ */
+public class LazyProjectVersion {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LazyProjectVersion.class);
+
+	private final Project project;
+
+	private final DetermineVersionAction action;
+
+	private volatile Version version;
+
+	LazyProjectVersion(Project project, DetermineVersionAction action) {
+		super();
+		this.project = project;
+		this.action = action;
+	}
+
+	/**
+	 * Returns the version of the project, determining it if necessary.
+	 */
+	public Version get() {
+		Version version = this.version;
+		if (version == null) {
+			synchronized (this) {
+				version = this.version;
+				if (version == null) {
+					version = action.determineVersion(project);
+					this.version = version;
+					LOG.info("Version was set to " + version + " for project " + project.getName());
+				}
+			}
+		}
+
+		return version;
+	}
+
+	@Override
+	public String toString() {
+		return get().toString();
+	}
+
+}
@@ -0,0 +1,367 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the release tags and release branches of the projects of a
+ * repository. The refs of a project are looked up on first access with the
+ * prefix queries {@code refs/tags/<project>-} and
+ * {@code refs/remotes/<remote>/<project>-release-} and kept for later
+ * accesses. The work per project depends on the number of matching refs, not
+ * on the number of refs in the repository.
+ * <p>
+ * Only remote release branches are considered, a release branch that has not
+ * been pushed does not affect versions yet.
+ * <p>
+ * The index also keeps the last release of each project that is reachable
+ * from a given {@code HEAD} commit, so that an index kept in memory between
+ * builds answers it without opening the repository. It is dropped together
+ * with the tags of the project.
+ */
+class RefIndex {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RefIndex.class);
+
+	static final String RELEASE_INFIX = "-release-";
+
+	static final String HOTFIX_INFIX = "-hotfix-";
+
+	private final RefNameSource source;
+
+	private final List<String> remotes;
+
+	private final VersionTimings timings;
+
+	private final ConcurrentMap<String, QueriedRefs> releaseTags;
+
+	private final ConcurrentMap<String, QueriedRefs> releaseBranches;
+
+	private final ConcurrentMap<String, ReachableRelease> reachableReleases;
+
+	/**
+	 * Incremented before queried refs are dropped, so that a query that ran
+	 * concurrently with an invalidation is not kept.
+	 */
+	private final AtomicLong generation;
+
+	/**
+	 * Creates an index that queries the given source. Release branches are
+	 * looked up below {@code refs/remotes/<remote>/} for each of the given
+	 * remote names.
+	 */
+	RefIndex(RefNameSource source, List<String> remotes, VersionTimings timings) {
+		this(source, new ArrayList<String>(remotes), timings, new ConcurrentHashMap<String, QueriedRefs>(), new ConcurrentHashMap<String, QueriedRefs>(), new ConcurrentHashMap<String, ReachableRelease>(), new AtomicLong());
+	}
+
+	private RefIndex(RefNameSource source, List<String> remotes, VersionTimings timings, ConcurrentMap<String, QueriedRefs> releaseTags, ConcurrentMap<String, QueriedRefs> releaseBranches, ConcurrentMap<String, ReachableRelease> reachableReleases, AtomicLong generation) {
+		super();
+		this.source = source;
+		this.remotes = remotes;
+		this.timings = timings;
+		this.releaseTags = releaseTags;
+		this.releaseBranches = releaseBranches;
+		this.reachableReleases = reachableReleases;
+		this.generation = generation;
+	}
+
+	/**
+	 * Returns an index that shares the queried refs with this one, but
+	 * records its queries in the given timings.
+	 */
+	RefIndex withTimings(VersionTimings timings) {
+		return new RefIndex(source, remotes, timings, releaseTags, releaseBranches, reachableReleases, generation);
+	}
+
+	List<String> getRemotes() {
+		return remotes;
+	}
+
+	/**
+	 * Returns the highest release tag of the given project or {@code null}.
+	 */
+	Version getLastRelease(String project) throws IOException {
+		return getReleaseTags(project).last();
+	}
+
+	/**
+	 * Returns the highest release branch of the given project or {@code null}.
+	 */
+	Version getNextRelease(String project) throws IOException {
+		return getReleaseBranches(project).last();
+	}
+
+	/**
+	 * Returns the versions of all {@code <project>-<version>} tags of the
+	 * given project.
+	 */
+	VersionIndex getReleaseTags(String project) throws IOException {
+		QueriedRefs refs = releaseTags.get(project);
+		if (refs == null) {
+			long queryGeneration = generation.get();
+			refs = query(Collections.singletonList(Constants.R_TAGS + project + '-'));
+			refs = store(releaseTags, project, refs, queryGeneration);
+		}
+
+		return refs.versions;
+	}
+
+	/**
+	 * Returns the versions of all {@code <project>-release-<version>} branches
+	 * of the given project on any of the configured remotes.
+	 */
+	VersionIndex getReleaseBranches(String project) throws IOException {
+		QueriedRefs refs = releaseBranches.get(project);
+		if (refs == null) {
+			List<String> prefixes = new ArrayList<String>(remotes.size());
+			for (String remote : remotes) {
+				prefixes.add(Constants.R_REMOTES + remote + '/' + project + RELEASE_INFIX);
+			}
+
+			long queryGeneration = generation.get();
+			refs = query(prefixes);
+			refs = store(releaseBranches, project, refs, queryGeneration);
+		}
+
+		return refs.versions;
+	}
+
+	/**
+	 * Returns the last release of the given project reachable from the given
+	 * {@code HEAD} commit, if it was resolved for that commit and the tags of
+	 * the project did not change since, or {@code null}. The version of the
+	 * returned release is {@code null} if there is no reachable release.
+	 */
+	ReachableRelease getReachableRelease(String project, String headCommit) {
+		ReachableRelease release = reachableReleases.get(project);
+		if (release == null || !release.headCommit.equals(headCommit)) {
+			return null;
+		}
+
+		return release;
+	}
+
+	/**
+	 * Returns the current generation, to be passed to
+	 * {@link #putReachableRelease} when the release was resolved.
+	 */
+	long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Keeps the last release of the given project reachable from the given
+	 * {@code HEAD} commit, unless refs were invalidated since the given
+	 * generation.
+	 */
+	void putReachableRelease(String project, String headCommit, Version version, long resolveGeneration) {
+		ReachableRelease release = new ReachableRelease(headCommit, version);
+		reachableReleases.put(project, release);
+		if (generation.get() != resolveGeneration) {
+			reachableReleases.remove(project, release);
+		}
+	}
+
+	/**
+	 * Keeps the result of a query unless another thread stored one first.
+	 * If refs were invalidated since the query started, the result may be
+	 * stale; it is still returned to the caller, but dropped again so that
+	 * the next access queries anew.
+	 */
+	private QueriedRefs store(ConcurrentMap<String, QueriedRefs> queried, String project, QueriedRefs refs, long queryGeneration) {
+		QueriedRefs existing = queried.putIfAbsent(project, refs);
+		if (existing != null) {
+			return existing;
+		}
+
+		if (generation.get() != queryGeneration) {
+			queried.remove(project, refs);
+		}
+
+		return refs;
+	}
+
+	/**
+	 * Returns the number of refs that were scanned by the queries of the
+	 * release tags and branches of the given project so far. No refs are
+	 * queried by this method.
+	 */
+	int getScannedRefCount(String project) {
+		int count = 0;
+		QueriedRefs tags = releaseTags.get(project);
+		if (tags != null) {
+			count += tags.refCount;
+		}
+
+		QueriedRefs branches = releaseBranches.get(project);
+		if (branches != null) {
+			count += branches.refCount;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the number of versions matched in the release tags and branches
+	 * of the given project that have been queried so far. No refs are queried
+	 * by this method.
+	 */
+	int getMatchedVersionCount(String project) {
+		int count = 0;
+		QueriedRefs tags = releaseTags.get(project);
+		if (tags != null) {
+			count += tags.versions.size();
+		}
+
+		QueriedRefs branches = releaseBranches.get(project);
+		if (branches != null) {
+			count += branches.versions.size();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Drops the queried refs of all projects the given ref could belong to,
+	 * so that they are queried again on next access.
+	 */
+	void invalidate(String refName) {
+		generation.incrementAndGet();
+		if (refName.startsWith(Constants.R_TAGS)) {
+			for (String project : releaseTags.keySet()) {
+				if (refName.startsWith(project + '-', Constants.R_TAGS.length())) {
+					releaseTags.remove(project);
+				}
+			}
+
+			for (String project : reachableReleases.keySet()) {
+				if (refName.startsWith(project + '-', Constants.R_TAGS.length())) {
+					reachableReleases.remove(project);
+				}
+			}
+		} else {
+			for (String remote : remotes) {
+				String remotePrefix = Constants.R_REMOTES + remote + '/';
+				if (refName.startsWith(remotePrefix)) {
+					for (String project : releaseBranches.keySet()) {
+						if (refName.startsWith(project + RELEASE_INFIX, remotePrefix.length())) {
+							releaseBranches.remove(project);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the queried refs of all projects.
+	 */
+	void invalidateAll() {
+		generation.incrementAndGet();
+		releaseTags.clear();
+		releaseBranches.clear();
+		reachableReleases.clear();
+	}
+
+	/**
+	 * Returns the version of a {@code <project><infix><version>} branch name or
+	 * {@code null} if the name does not denote such a branch of the given project.
+	 */
+	static Version matchBranch(String branchName, String project, String infix) {
+		if (branchName.startsWith(project) && branchName.startsWith(infix, project.length())) {
+			return Version.tryParse(branchName, project.length() + infix.length());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the version that spans from the given start index to the end of
+	 * the given ref name, or {@code null} if there is none. Versions that are
+	 * too large to be indexed are ignored with a warning. The release history
+	 * ignores them as well, so that the last release does not depend on
+	 * whether it is reachable from {@code HEAD}.
+	 */
+	static Version matchVersion(CharSequence refName, int start) {
+		Version version = Version.tryParse(refName, start, refName.length());
+		if (version != null && version.getKey() == Version.NO_KEY) {
+			LOG.warn("Ignoring ref " + refName + ", version " + version + " is too large to be indexed");
+			return null;
+		}
+
+		return version;
+	}
+
+	/**
+	 * Collects the versions that directly follow one of the given prefixes.
+	 * Refs with anything else after the prefix, e.g. the tags of a project
+	 * whose name extends the queried one, are ignored.
+	 */
+	private QueriedRefs query(List<String> prefixes) throws IOException {
+		final VersionIndex.Builder builder = VersionIndex.builder();
+		VersionTimings.Probe probe = timings.start(VersionTimings.Phase.REF_QUERY);
+		int refCount = 0;
+		for (final String prefix : prefixes) {
+			refCount += source.visit(prefix, new RefNameSource.Visitor() {
+				@Override
+				public void visit(CharSequence refName) {
+					Version version = matchVersion(refName, prefix.length());
+					if (version != null) {
+						builder.add(version);
+					}
+				}
+			});
+		}
+
+		VersionIndex index = builder.build();
+		timings.refsQueried(probe, refCount, index.size());
+		return new QueriedRefs(index, refCount);
+	}
+
+	/**
+	 * Versions matched by a query together with the number of refs it
+	 * scanned.
+	 */
+	private static final class QueriedRefs {
+
+		private final VersionIndex versions;
+
+		private final int refCount;
+
+		QueriedRefs(VersionIndex versions, int refCount) {
+			super();
+			this.versions = versions;
+			this.refCount = refCount;
+		}
+	}
+
+	/**
+	 * Last release of a project that is reachable from a {@code HEAD} commit.
+	 */
+	static final class ReachableRelease {
+
+		private final String headCommit;
+
+		private final Version version;
+
+		ReachableRelease(String headCommit, Version version) {
+			super();
+			this.headCommit = headCommit;
+			this.version = version;
+		}
+
+		Version getVersion() {
+			return version;
+		}
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.IOException;
+
+/**
+ * Streams the names of the refs of a repository without resolving them.
+ */
+interface RefNameSource {
+
+	/**
+	 * Passes the full name of every ref starting with the given prefix to the
+	 * given visitor and returns the number of visited refs. Ref names are
+	 * visited at most once, but in no particular order.
+	 */
+	int visit(String prefix, Visitor visitor) throws IOException;
+
+	interface Visitor {
+
+		/**
+		 * Called for every ref name. The given sequence may be reused for the
+		 * next ref, so it must not be retained beyond the call.
+		 */
+		void visit(CharSequence refName);
+	}
+
+}
@@ -0,0 +1,177 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Computes a fingerprint of the ref state of a repository without opening it.
+ * The fingerprint covers {@code HEAD}, size and modification time of
+ * {@code packed-refs} and name, size and modification time of every loose ref
+ * below {@code refs}, and size and modification time of {@code config},
+ * which defines the remotes. Whenever a branch is switched, or a tag or
+ * branch is created, moved or deleted, the fingerprint changes.
+ */
+class RefState {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String SYMREF_PREFIX = "ref: ";
+
+	private static final Pattern REMOTE_SECTION = Pattern.compile("^\\s*\\[\\s*remote\\s+\"([^\"]+)\"\\s*\\]", Pattern.CASE_INSENSITIVE);
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private RefState() {
+		super();
+	}
+
+	/**
+	 * Returns the {@code .git} directory of the given work tree or {@code null}
+	 * if the repository does not use a plain {@code .git} directory (e.g. a
+	 * linked work tree or a submodule).
+	 */
+	static File getGitDir(File workTree) {
+		File gitDir = new File(workTree, ".git");
+		if (gitDir.isDirectory()) {
+			return gitDir;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the fingerprint of the given {@code .git} directory as hex string.
+	 */
+	static String fingerprint(File gitDir) throws IOException {
+		MessageDigest digest = newDigest();
+		digest.update(Files.readAllBytes(new File(gitDir, "HEAD").toPath()));
+		update(digest, "packed-refs", new File(gitDir, "packed-refs"));
+		updateLooseRefs(digest, "refs", new File(gitDir, "refs"));
+		update(digest, "config", new File(gitDir, "config"));
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Returns the name of the current branch, or the id of the current commit
+	 * if {@code HEAD} is detached, as read from the {@code HEAD} file.
+	 */
+	static String readCurrentBranch(File gitDir) throws IOException {
+		String head = new String(Files.readAllBytes(new File(gitDir, "HEAD").toPath()), UTF_8).trim();
+		if (head.startsWith(SYMREF_PREFIX)) {
+			return Repository.shortenRefName(head.substring(SYMREF_PREFIX.length()).trim());
+		}
+
+		return head;
+	}
+
+	/**
+	 * Returns the id of the commit {@code HEAD} points to or {@code null} if
+	 * the current branch has no commits yet.
+	 */
+	static String readHeadCommit(File gitDir) throws IOException {
+		String head = new String(Files.readAllBytes(new File(gitDir, "HEAD").toPath()), UTF_8).trim();
+		if (!head.startsWith(SYMREF_PREFIX)) {
+			return head;
+		}
+
+		String refName = head.substring(SYMREF_PREFIX.length()).trim();
+		File looseRef = new File(gitDir, refName);
+		if (looseRef.isFile()) {
+			return new String(Files.readAllBytes(looseRef.toPath()), UTF_8).trim();
+		}
+
+		File packedRefs = new File(gitDir, "packed-refs");
+		if (packedRefs.isFile()) {
+			String suffix = ' ' + refName;
+			for (String line : Files.readAllLines(packedRefs.toPath(), UTF_8)) {
+				if (line.endsWith(suffix)) {
+					return line.substring(0, line.length() - suffix.length());
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the names of the remotes defined in the {@code config} file of
+	 * the given {@code .git} directory. Remotes defined in included files are
+	 * not found.
+	 */
+	static List<String> readRemotes(File gitDir) throws IOException {
+		File config = new File(gitDir, "config");
+		if (!config.isFile()) {
+			return new ArrayList<String>();
+		}
+
+		Set<String> remotes = new TreeSet<String>();
+		for (String line : Files.readAllLines(config.toPath(), UTF_8)) {
+			Matcher matcher = REMOTE_SECTION.matcher(line);
+			if (matcher.find()) {
+				remotes.add(matcher.group(1));
+			}
+		}
+
+		return new ArrayList<String>(remotes);
+	}
+
+	private static void updateLooseRefs(MessageDigest digest, String path, File dir) {
+		String[] names = dir.list();
+		if (names == null) {
+			return;
+		}
+
+		Arrays.sort(names);
+		for (String name : names) {
+			File file = new File(dir, name);
+			String filePath = path + '/' + name;
+			if (file.isDirectory()) {
+				updateLooseRefs(digest, filePath, file);
+			} else {
+				update(digest, filePath, file);
+			}
+		}
+	}
+
+	private static void update(MessageDigest digest, String path, File file) {
+		digest.update(path.getBytes(UTF_8));
+		long length = file.length();
+		long lastModified = file.lastModified();
+		for (int i = 0; i < 8; i++) {
+			digest.update((byte) (length >>> (i * 8)));
+			digest.update((byte) (lastModified >>> (i * 8)));
+		}
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not supported", e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+
+		return new String(chars);
+	}
+
+}
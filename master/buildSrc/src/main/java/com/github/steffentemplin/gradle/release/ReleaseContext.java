@@ -0,0 +1,633 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.gradle.api.GradleException;
+import org.gradle.BuildAdapter;
+import org.gradle.BuildResult;
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Build-scoped state of the release plugin. One instance is shared by all
+ * projects that apply the plugin. It owns the Git repository handle, which
+ * is opened lazily on first use and closed when the build finishes. When the
+ * plugin is first applied, the ref state is read on a background thread, so
+ * that it overlaps with the evaluation of the build scripts.
+ */
+public class ReleaseContext extends BuildAdapter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReleaseContext.class);
+
+	private static final String EXTENSION_NAME = "releaseContext";
+
+	private static final String VERSION_CACHE_PATH = "release/version-cache.properties";
+
+	private static final String COMMIT_GRAPH_PATH = "release/commit-graph.bin";
+
+	private static final String TREE_ID_CACHE_PATH = "release/tree-id-cache.properties";
+
+	/**
+	 * Project property that enables the timing report, e.g.
+	 * {@code -Prelease.timingReport}.
+	 */
+	private static final String TIMING_REPORT_PROPERTY = "release.timingReport";
+
+	private static final String TIMING_REPORT_PATH = "reports/release/version-timings.txt";
+
+	/**
+	 * Project property with the comma-separated names of the remotes whose
+	 * release branches are considered, e.g. {@code -Prelease.remotes=origin}.
+	 * Defaults to all remotes of the repository.
+	 */
+	private static final String REMOTES_PROPERTY = "release.remotes";
+
+	/**
+	 * Project property that disables keeping the ref state in memory between
+	 * builds, i.e. {@code -Prelease.daemonCache=false}.
+	 */
+	private static final String DAEMON_CACHE_PROPERTY = "release.daemonCache";
+
+	/**
+	 * Project property with the path of a version manifest to use instead of
+	 * determining versions, e.g. {@code -Prelease.manifest=versions.properties}.
+	 */
+	private static final String MANIFEST_PROPERTY = "release.manifest";
+
+	/**
+	 * Project property that makes the highest release tag count as last
+	 * release even if it is not reachable from {@code HEAD}, i.e.
+	 * {@code -Prelease.reachability=false}.
+	 */
+	private static final String REACHABILITY_PROPERTY = "release.reachability";
+
+	/**
+	 * Project property that marks a release build, i.e. {@code -Prelease}.
+	 */
+	private static final String RELEASE_PROPERTY = "release";
+
+	private final File repositoryDir;
+
+	private final File versionCacheFile;
+
+	private final File commitGraphFile;
+
+	private final File treeIdCacheFile;
+
+	private final File timingReportFile;
+
+	private final List<String> configuredRemotes;
+
+	private final boolean daemonCacheEnabled;
+
+	private final File manifestFile;
+
+	private final boolean reachabilityEnabled;
+
+	private final boolean releaseBuild;
+
+	private final VersionTimings timings = new VersionTimings();
+
+	private final DetermineVersionAction determineVersionAction;
+
+	private Git git;
+
+	private RefIndex refIndex;
+
+	private VersionCache versionCache;
+
+	private boolean versionCacheLoaded;
+
+	private String refStateFingerprint;
+
+	private VersionManifest versionManifest;
+
+	private VersionService versionService;
+
+	private ReleaseHistory releaseHistory;
+
+	private TreeIdCache treeIdCache;
+
+	private boolean versionServiceResolved;
+
+	private volatile FutureTask<Void> prefetch;
+
+	ReleaseContext(Project rootProject) {
+		super();
+		this.repositoryDir = rootProject.getRootDir().getParentFile();
+		this.versionCacheFile = new File(rootProject.getBuildDir(), VERSION_CACHE_PATH);
+		this.commitGraphFile = new File(rootProject.getBuildDir(), COMMIT_GRAPH_PATH);
+		this.treeIdCacheFile = new File(rootProject.getBuildDir(), TREE_ID_CACHE_PATH);
+		if (rootProject.hasProperty(TIMING_REPORT_PROPERTY)) {
+			this.timingReportFile = new File(rootProject.getBuildDir(), TIMING_REPORT_PATH);
+		} else {
+			this.timingReportFile = null;
+		}
+
+		if (rootProject.hasProperty(REMOTES_PROPERTY)) {
+			this.configuredRemotes = parseRemotes(String.valueOf(rootProject.property(REMOTES_PROPERTY)));
+		} else {
+			this.configuredRemotes = null;
+		}
+
+		if (rootProject.hasProperty(MANIFEST_PROPERTY)) {
+			this.manifestFile = rootProject.file(rootProject.property(MANIFEST_PROPERTY));
+		} else {
+			this.manifestFile = null;
+		}
+
+		this.daemonCacheEnabled = !rootProject.hasProperty(DAEMON_CACHE_PROPERTY) || !"false".equals(String.valueOf(rootProject.property(DAEMON_CACHE_PROPERTY)));
+		this.reachabilityEnabled = !rootProject.hasProperty(REACHABILITY_PROPERTY) || !"false".equals(String.valueOf(rootProject.property(REACHABILITY_PROPERTY)));
+		this.releaseBuild = rootProject.hasProperty(RELEASE_PROPERTY);
+
+		this.determineVersionAction = new DetermineVersionAction(this);
+	}
+
+	/**
+	 * Returns the context of the build the given project belongs to and
+	 * creates it on first access.
+	 */
+	public static ReleaseContext get(Project project) {
+		Project rootProject = project.getRootProject();
+		synchronized (rootProject) {
+			ReleaseContext context = rootProject.getExtensions().findByType(ReleaseContext.class);
+			if (context == null) {
+				context = new ReleaseContext(rootProject);
+				rootProject.getExtensions().add(EXTENSION_NAME, context);
+				project.getGradle().addBuildListener(context);
+				context.startPrefetch();
+			}
+
+			return context;
+		}
+	}
+
+	/**
+	 * Starts reading the state that determining versions will need on a
+	 * background thread. Callers join it with {@link #awaitPrefetch()}.
+	 */
+	synchronized void startPrefetch() {
+		if (prefetch != null) {
+			return;
+		}
+
+		prefetch = new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				prefetchRefs();
+				return null;
+			}
+		});
+		Thread thread = new Thread(prefetch, "Release plugin prefetch for " + repositoryDir);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Reads the version cache and, unless it or the in-memory state of the
+	 * previous build is likely to answer all projects, the ref index, the
+	 * current branch and the commit graph. Nothing is read if versions come
+	 * from a manifest.
+	 */
+	private void prefetchRefs() throws IOException {
+		if (manifestFile != null) {
+			return;
+		}
+
+		VersionCache cache = getVersionCache();
+		if (cache != null && !cache.isEmpty()) {
+			return;
+		}
+
+		VersionService service = getVersionService();
+		if (service != null && service.isWarm()) {
+			return;
+		}
+
+		getRefIndex();
+		getCurrentBranch();
+		if (reachabilityEnabled) {
+			getReleaseHistory().getHeadCommit();
+		}
+
+		LOG.debug("Prefetched ref state of repository " + repositoryDir);
+	}
+
+	/**
+	 * Waits for the background prefetch to finish and rethrows its failure.
+	 * Callers only wait once they need refs that the manifest or the version
+	 * cache did not answer, so a failed prefetch does not fail projects whose
+	 * version is known. Must not be called while holding the lock of this
+	 * context, which the prefetch needs.
+	 */
+	void awaitPrefetch() throws IOException {
+		FutureTask<Void> task = prefetch;
+		if (task == null) {
+			return;
+		}
+
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading the ref state of repository " + repositoryDir);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new IOException(cause);
+		}
+	}
+
+	public File getRepositoryDir() {
+		return repositoryDir;
+	}
+
+	public DetermineVersionAction getDetermineVersionAction() {
+		return determineVersionAction;
+	}
+
+	VersionTimings getTimings() {
+		return timings;
+	}
+
+	/**
+	 * Returns the shared repository handle, opening it if necessary.
+	 */
+	public synchronized Git getGit() throws IOException {
+		if (git == null) {
+			VersionTimings.Probe probe = timings.start(VersionTimings.Phase.REPOSITORY_OPEN);
+			git = Git.open(repositoryDir);
+			timings.repositoryOpened(probe, repositoryDir);
+			LOG.debug("Opened Git repository " + repositoryDir);
+		}
+
+		return git;
+	}
+
+	/**
+	 * Returns the name of the current branch, or the id of the current commit
+	 * if {@code HEAD} is detached. {@code HEAD} is read directly if possible,
+	 * so that the repository does not need to be opened.
+	 */
+	synchronized String getCurrentBranch() throws IOException {
+		File gitDir = RefState.getGitDir(repositoryDir);
+		if (FileRefNameSource.isSupported(gitDir)) {
+			VersionService service = getVersionService();
+			if (service != null) {
+				return service.getCurrentBranch();
+			}
+
+			return RefState.readCurrentBranch(gitDir);
+		}
+
+		return getGit().getRepository().getBranch();
+	}
+
+	/**
+	 * Returns the id of the commit {@code HEAD} points to or {@code null} if
+	 * there is none.
+	 */
+	synchronized String getHeadCommit() throws IOException {
+		File gitDir = RefState.getGitDir(repositoryDir);
+		if (FileRefNameSource.isSupported(gitDir)) {
+			return RefState.readHeadCommit(gitDir);
+		}
+
+		ObjectId head = getGit().getRepository().resolve(Constants.HEAD);
+		return head == null ? null : head.name();
+	}
+
+	/**
+	 * Returns the version manifest given by {@code -Prelease.manifest} or
+	 * {@code null} if there is none. A manifest that was written for another
+	 * commit than the current one, or by a build with another release flag,
+	 * is rejected.
+	 */
+	synchronized VersionManifest getVersionManifest() {
+		if (manifestFile == null) {
+			return null;
+		}
+
+		if (versionManifest == null) {
+			try {
+				VersionManifest manifest = VersionManifest.load(manifestFile);
+				String headCommit = getHeadCommit();
+				if (!manifest.getCommit().equals(headCommit)) {
+					throw new GradleException("Version manifest " + manifestFile + " was written for commit " + manifest.getCommit() + ", but HEAD is " + headCommit);
+				}
+
+				if (manifest.isRelease() != releaseBuild) {
+					throw new GradleException("Version manifest " + manifestFile + " was written by a " + (manifest.isRelease() ? "release" : "non-release") + " build, but this build " + (releaseBuild ? "is" : "is not") + " run with -Prelease");
+				}
+
+				versionManifest = manifest;
+				LOG.info("Using versions of manifest " + manifestFile);
+			} catch (IOException e) {
+				throw new GradleException("Could not read version manifest " + manifestFile, e);
+			}
+		}
+
+		return versionManifest;
+	}
+
+	/**
+	 * Returns the service that keeps the ref state of the repository in
+	 * memory between builds of the same daemon, or {@code null} if it is
+	 * disabled or the repository cannot be watched.
+	 */
+	private synchronized VersionService getVersionService() {
+		if (!versionServiceResolved) {
+			versionServiceResolved = true;
+			File gitDir = RefState.getGitDir(repositoryDir);
+			if (daemonCacheEnabled && FileRefNameSource.isSupported(gitDir)) {
+				versionService = VersionService.get(gitDir);
+				if (versionService != null) {
+					versionService.buildStarted();
+				}
+			}
+		}
+
+		return versionService;
+	}
+
+	/**
+	 * Returns a source for the ref names of the repository. Plain {@code .git}
+	 * directories are read directly, everything else through JGit.
+	 */
+	RefNameSource getRefNameSource() throws IOException {
+		File gitDir = RefState.getGitDir(repositoryDir);
+		if (FileRefNameSource.isSupported(gitDir)) {
+			return new FileRefNameSource(gitDir);
+		}
+
+		return new JGitRefNameSource(getGit().getRepository());
+	}
+
+	/**
+	 * Returns the names of the remotes whose release branches are considered.
+	 */
+	List<String> getRemotes() throws IOException {
+		if (configuredRemotes != null) {
+			return configuredRemotes;
+		}
+
+		File gitDir = RefState.getGitDir(repositoryDir);
+		if (FileRefNameSource.isSupported(gitDir)) {
+			VersionService service = getVersionService();
+			if (service != null) {
+				return service.getRemotes();
+			}
+
+			return RefState.readRemotes(gitDir);
+		}
+
+		return new ArrayList<String>(getGit().getRepository().getConfig().getSubsections("remote"));
+	}
+
+	/**
+	 * Returns the index of the release tags and branches. It is created on
+	 * first access and then shared by all projects, which query their refs
+	 * when they need them. Refs queried by an earlier build of the same
+	 * daemon are reused unless they changed.
+	 */
+	synchronized RefIndex getRefIndex() throws IOException {
+		if (refIndex == null) {
+			VersionService service = getVersionService();
+			if (service != null) {
+				refIndex = service.getRefIndex(getRemotes(), timings);
+			} else {
+				refIndex = new RefIndex(getRefNameSource(), getRemotes(), timings);
+			}
+		}
+
+		return refIndex;
+	}
+
+	boolean isReachabilityEnabled() {
+		return reachabilityEnabled;
+	}
+
+	/**
+	 * Returns whether the build was started with {@code -Prelease}.
+	 */
+	boolean isReleaseBuild() {
+		return releaseBuild;
+	}
+
+	/**
+	 * Returns the highest release of the given project that is reachable
+	 * from {@code HEAD}, or {@code null} if there is none. The result is kept
+	 * in the ref index for the current {@code HEAD} commit, so builds of a
+	 * warm daemon only open the repository if {@code HEAD} or the tags of the
+	 * project changed.
+	 */
+	Version getReachableLastRelease(String project) throws IOException {
+		RefIndex index = getRefIndex();
+		String headCommit = getHeadCommit();
+		if (headCommit != null) {
+			RefIndex.ReachableRelease cached = index.getReachableRelease(project, headCommit);
+			if (cached != null) {
+				return cached.getVersion();
+			}
+		}
+
+		long generation = index.getGeneration();
+		ReleaseHistory history = getReleaseHistory();
+		Version lastRelease = history.getLastRelease(project);
+		if (lastRelease != null && LOG.isDebugEnabled()) {
+			LOG.debug(history.getCommitsSinceLastRelease(project) + " commits since release " + lastRelease + " of project " + project);
+		}
+
+		if (headCommit != null) {
+			index.putReachableRelease(project, headCommit, lastRelease, generation);
+		}
+
+		return lastRelease;
+	}
+
+	/**
+	 * Returns the release history that resolves the last release of a
+	 * project among the tags reachable from {@code HEAD}. It is created on
+	 * first access and opens the repository.
+	 */
+	synchronized ReleaseHistory getReleaseHistory() throws IOException {
+		if (releaseHistory == null) {
+			releaseHistory = new ReleaseHistory(getGit().getRepository(), getRefNameSource(), commitGraphFile);
+		}
+
+		return releaseHistory;
+	}
+
+	/**
+	 * Returns the persistent cache of the tree ids of project directories.
+	 */
+	synchronized TreeIdCache getTreeIdCache() {
+		if (treeIdCache == null) {
+			treeIdCache = TreeIdCache.load(treeIdCacheFile);
+		}
+
+		return treeIdCache;
+	}
+
+	/**
+	 * Returns the persistent version cache for the current ref state or
+	 * {@code null} if the ref state cannot be determined without opening the
+	 * repository. Loading the cache does not touch the repository itself. The
+	 * cache is not used if an earlier build of the same daemon already holds
+	 * the ref state in memory.
+	 */
+	synchronized VersionCache getVersionCache() {
+		if (!versionCacheLoaded) {
+			versionCacheLoaded = true;
+			VersionService service = getVersionService();
+			if (service == null || !service.isWarm()) {
+				try {
+					String fingerprint = getRefStateFingerprint();
+					if (fingerprint != null) {
+						versionCache = VersionCache.load(versionCacheFile, fingerprint);
+					}
+				} catch (IOException e) {
+					LOG.warn("Could not determine ref state of repository " + repositoryDir + ", version cache is disabled", e);
+				}
+			}
+		}
+
+		return versionCache;
+	}
+
+	/**
+	 * Returns a fingerprint of everything the versions of all projects depend
+	 * on besides the release flag, i.e. the {@link RefState} of the
+	 * repository, the configured remotes and whether unreachable tags count.
+	 * Returns {@code null} if the ref state cannot be determined without
+	 * opening the repository. It is computed once per build.
+	 */
+	synchronized String getRefStateFingerprint() throws IOException {
+		if (refStateFingerprint == null) {
+			File gitDir = RefState.getGitDir(repositoryDir);
+			if (gitDir == null) {
+				return null;
+			}
+
+			String fingerprint = RefState.fingerprint(gitDir);
+			if (configuredRemotes != null) {
+				fingerprint += configuredRemotes;
+			}
+
+			// the last release depends on whether unreachable tags count
+			if (!reachabilityEnabled) {
+				fingerprint += "@unreachable";
+			}
+
+			refStateFingerprint = fingerprint;
+		}
+
+		return refStateFingerprint;
+	}
+
+	private static List<String> parseRemotes(String value) {
+		List<String> remotes = new ArrayList<String>();
+		for (String remote : value.split(",")) {
+			remote = remote.trim();
+			if (!remote.isEmpty()) {
+				remotes.add(remote);
+			}
+		}
+
+		return remotes;
+	}
+
+	@Override
+	public void buildFinished(BuildResult result) {
+		close();
+	}
+
+	void close() {
+		// the prefetch may still use the repository
+		try {
+			awaitPrefetch();
+		} catch (IOException e) {
+			LOG.debug("Prefetch of ref state failed", e);
+		} catch (RuntimeException e) {
+			LOG.debug("Prefetch of ref state failed", e);
+		}
+
+		release();
+	}
+
+	private synchronized void release() {
+		if (timingReportFile != null) {
+			try {
+				timings.writeReport(timingReportFile);
+				LOG.info("Version timing report was written to " + timingReportFile);
+			} catch (IOException e) {
+				LOG.warn("Could not write version timing report " + timingReportFile, e);
+			}
+		}
+
+		if (versionCache != null) {
+			try {
+				versionCache.store();
+			} catch (IOException e) {
+				LOG.warn("Could not write version cache " + versionCacheFile, e);
+			}
+		}
+
+		versionCache = null;
+		versionCacheLoaded = false;
+		refStateFingerprint = null;
+		versionManifest = null;
+		refIndex = null;
+		if (versionService != null) {
+			versionService.buildFinished();
+			versionService = null;
+		}
+
+		versionServiceResolved = false;
+		if (treeIdCache != null) {
+			try {
+				treeIdCache.store();
+			} catch (IOException e) {
+				LOG.warn("Could not write tree id cache " + treeIdCacheFile, e);
+			}
+
+			treeIdCache = null;
+		}
+
+		if (releaseHistory != null) {
+			releaseHistory.close();
+			releaseHistory = null;
+		}
+
+		if (git != null) {
+			git.close();
+			git = null;
+			LOG.debug("Closed Git repository " + repositoryDir);
+		}
+
+		prefetch = null;
+	}
+
+}
@@ -0,0 +1,247 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the last release of a project as the highest release tag that is
+ * reachable from {@code HEAD}, so that tags on other maintenance lines are
+ * ignored. Reachability is answered by a {@link CommitGraph} that is
+ * persisted between builds and only extended by the commits that were added
+ * since. The tags of a project are checked from the highest version down and
+ * the first reachable one wins; all checks share one walk from {@code HEAD},
+ * which stops at the generation of the checked tag.
+ */
+class ReleaseHistory {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReleaseHistory.class);
+
+	private final Repository repository;
+
+	private final RefNameSource source;
+
+	private final File graphFile;
+
+	private final Map<String, Release> lastReleases = new HashMap<String, Release>();
+
+	private String graphKey;
+
+	private CommitGraph graph;
+
+	private boolean graphModified;
+
+	private int head = -1;
+
+	private CommitGraph.Walk headWalk;
+
+	private boolean headResolved;
+
+	ReleaseHistory(Repository repository, RefNameSource source, File graphFile) {
+		super();
+		this.repository = repository;
+		this.source = source;
+		this.graphFile = graphFile;
+	}
+
+	/**
+	 * Returns the highest release of the given project that is reachable from
+	 * {@code HEAD} or {@code null} if there is none.
+	 */
+	synchronized Version getLastRelease(String project) throws IOException {
+		Release release = getRelease(project);
+		return release == null ? null : release.version;
+	}
+
+	/**
+	 * Returns the number of commits since the last release of the given
+	 * project, i.e. the commits reachable from {@code HEAD} but not from the
+	 * release tag, or -1 if there is no reachable release.
+	 */
+	synchronized int getCommitsSinceLastRelease(String project) throws IOException {
+		Release release = getRelease(project);
+		if (release == null) {
+			return -1;
+		}
+
+		return graph.countExclusive(head, release.commit);
+	}
+
+	/**
+	 * Returns the commit of the last release of the given project or
+	 * {@code null} if there is no reachable release.
+	 */
+	synchronized ObjectId getLastReleaseCommit(String project) throws IOException {
+		Release release = getRelease(project);
+		return release == null ? null : graph.getId(release.commit);
+	}
+
+	/**
+	 * Returns the commit {@code HEAD} points to or {@code null} if there is
+	 * none.
+	 */
+	synchronized ObjectId getHeadCommit() throws IOException {
+		return resolveHead() ? graph.getId(head) : null;
+	}
+
+	private synchronized Release getRelease(String project) throws IOException {
+		Release release = lastReleases.get(project);
+		if (release == null) {
+			release = findRelease(project);
+			lastReleases.put(project, release);
+		}
+
+		return release == Release.NONE ? null : release;
+	}
+
+	private Release findRelease(String project) throws IOException {
+		if (!resolveHead()) {
+			return Release.NONE;
+		}
+
+		final String prefix = Constants.R_TAGS + project + '-';
+		final List<TagName> tags = new ArrayList<TagName>();
+		source.visit(prefix, new RefNameSource.Visitor() {
+			@Override
+			public void visit(CharSequence refName) {
+				Version version = RefIndex.matchVersion(refName, prefix.length());
+				if (version != null) {
+					tags.add(new TagName(version, refName.toString()));
+				}
+			}
+		});
+
+		Collections.sort(tags);
+		for (TagName tag : tags) {
+			Ref ref = repository.getRef(tag.refName);
+			if (ref == null) {
+				continue;
+			}
+
+			ref = repository.peel(ref);
+			ObjectId target = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+			// the graph contains the whole history of HEAD, so a commit that
+			// is not in it is not reachable
+			int commit = target == null ? -1 : graph.indexOf(target);
+			if (commit >= 0 && headWalk.reaches(commit)) {
+				LOG.debug("Last release of project " + project + " is " + tag.refName);
+				return new Release(tag.version, commit);
+			}
+
+			LOG.debug("Ignoring release tag " + tag.refName + ", it is not reachable from HEAD");
+		}
+
+		return Release.NONE;
+	}
+
+	/**
+	 * Loads the commit graph and makes sure it contains {@code HEAD}. Returns
+	 * {@code false} if there is no commit yet.
+	 */
+	private boolean resolveHead() throws IOException {
+		if (!headResolved) {
+			headResolved = true;
+			ObjectId headId = repository.resolve(Constants.HEAD);
+			if (headId == null) {
+				return false;
+			}
+
+			graphKey = shallowKey();
+			graph = CommitGraph.load(graphFile, graphKey);
+			ObjectReader reader = repository.newObjectReader();
+			try {
+				int size = graph.size();
+				graph = graph.update(reader, Collections.singletonList(headId));
+				if (graph.size() != size) {
+					graphModified = true;
+					LOG.info("Added " + (graph.size() - size) + " commits to the commit graph");
+				}
+			} finally {
+				reader.release();
+			}
+
+			head = graph.indexOf(headId);
+			headWalk = graph.walk(head);
+		}
+
+		return head >= 0;
+	}
+
+	/**
+	 * Shallow commits are stored without parents, so the graph must be
+	 * rebuilt whenever the shallow boundary moves.
+	 */
+	private String shallowKey() throws IOException {
+		File shallow = new File(repository.getDirectory(), "shallow");
+		if (!shallow.isFile()) {
+			return "";
+		}
+
+		return RefState.toHex(RefState.newDigest().digest(Files.readAllBytes(shallow.toPath())));
+	}
+
+	/**
+	 * Writes the commit graph if commits were added to it.
+	 */
+	synchronized void close() {
+		if (graphModified) {
+			try {
+				graph.store(graphFile, graphKey);
+			} catch (IOException e) {
+				LOG.warn("Could not write commit graph " + graphFile, e);
+			}
+
+			graphModified = false;
+		}
+	}
+
+	private static final class Release {
+
+		static final Release NONE = new Release(null, -1);
+
+		private final Version version;
+
+		private final int commit;
+
+		Release(Version version, int commit) {
+			super();
+			this.version = version;
+			this.commit = commit;
+		}
+	}
+
+	/**
+	 * Tag name ordered by descending version.
+	 */
+	private static final class TagName implements Comparable<TagName> {
+
+		private final Version version;
+
+		private final String refName;
+
+		TagName(Version version, String refName) {
+			super();
+			this.version = version;
+			this.refName = refName;
+		}
+
+		@Override
+		public int compareTo(TagName other) {
+			return other.version.compareTo(version);
+		}
+	}
+
+}
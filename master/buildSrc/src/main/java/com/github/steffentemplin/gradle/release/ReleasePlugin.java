@@ -1,16 +1,57 @@
 package com.github.steffentemplin.gradle.release;
 
+import java.io.File;
+import java.util.concurrent.Callable;
+
+import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.tasks.bundling.Jar;
 
 public class ReleasePlugin implements Plugin<Project> {
 
-	public void apply(Project project) {
-//		DetermineVersion determineVersion = project.getTasks().create("determineVersion", DetermineVersion.class);
-//		Task build = project.getTasks().getByName("build");
-//		build.mustRunAfter(determineVersion);
+	private static final String EXPORT_TASK_NAME = "exportVersionManifest";
+
+	private static final String AFFECTED_TASK_NAME = "determineAffectedProjects";
+
+	public void apply(final Project project) {
+		final DetermineVersion determineVersion = project.getTasks().create("determineVersion", DetermineVersion.class);
+		determineVersion.setDescription("Writes the version of the project to a properties file.");
+
+		Project rootProject = project.getRootProject();
+		if (rootProject.getTasks().findByName(EXPORT_TASK_NAME) == null) {
+			Task export = rootProject.getTasks().create(EXPORT_TASK_NAME, ExportVersionManifest.class);
+			export.setDescription("Writes the versions of all projects to a manifest for builds of the same commit.");
+		}
+
+		if (rootProject.getTasks().findByName(AFFECTED_TASK_NAME) == null) {
+			Task affected = rootProject.getTasks().create(AFFECTED_TASK_NAME, DetermineAffectedProjects.class);
+			affected.setDescription("Writes the paths of all projects that changed since their last release.");
+		}
+
+		ReleaseContext context = ReleaseContext.get(project);
+		project.setVersion(new LazyProjectVersion(project, context.getDetermineVersionAction()));
 
-		project.beforeEvaluate(new DetermineVersionAction());
+		// the manifest contains the version, so the jar is rebuilt when it changes
+		project.getPlugins().withType(JavaPlugin.class, new Action<JavaPlugin>() {
+			@Override
+			public void execute(JavaPlugin plugin) {
+				Task jar = project.getTasks().getByName(JavaPlugin.JAR_TASK_NAME);
+				jar.dependsOn(determineVersion);
+				// resolved when the inputs are, so a changed build directory is honoured
+				jar.getInputs().file(new Callable<File>() {
+					@Override
+					public File call() {
+						return determineVersion.getVersionFile();
+					}
+				});
+				if (jar instanceof Jar) {
+					CachingOsgiManifest.install((Jar) jar);
+				}
+			}
+		});
 	}
 
 }
@@ -0,0 +1,159 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of the tree ids of directories at given commits. Commits
+ * are immutable, so entries never become stale. Only the entries used by a
+ * build are written back, so tags that are no longer the last release drop
+ * out of the cache.
+ */
+class TreeIdCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TreeIdCache.class);
+
+	private static final String MISSING = "-";
+
+	private final File file;
+
+	private final Properties loaded;
+
+	private final Properties used = new Properties();
+
+	private TreeIdCache(File file, Properties loaded) {
+		super();
+		this.file = file;
+		this.loaded = loaded;
+	}
+
+	/**
+	 * Loads the cache from the given file. Returns an empty cache if the file
+	 * does not exist or cannot be read.
+	 */
+	static TreeIdCache load(File file) {
+		Properties properties = new Properties();
+		if (file.isFile()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				LOG.warn("Could not read tree id cache " + file, e);
+				properties.clear();
+			}
+		}
+
+		return new TreeIdCache(file, properties);
+	}
+
+	/**
+	 * Returns the id of the tree at the given path of the given commit or
+	 * {@code null} if there is no directory at that path. An empty path
+	 * denotes the root tree.
+	 */
+	synchronized ObjectId getTreeId(ObjectReader reader, AnyObjectId commit, String path) throws IOException {
+		String key = commit.name() + '/' + path;
+		String value = used.getProperty(key);
+		if (value == null) {
+			value = loaded.getProperty(key);
+		}
+
+		if (value == null) {
+			ObjectId treeId = lookup(reader, commit, path);
+			value = treeId == null ? MISSING : treeId.name();
+		}
+
+		used.setProperty(key, value);
+		return MISSING.equals(value) ? null : ObjectId.fromString(value);
+	}
+
+	/**
+	 * Returns the path of the given directory relative to the repository in
+	 * the form used by Git, or an empty string for the repository itself.
+	 */
+	static String relativePath(File repositoryDir, File dir) {
+		String path = repositoryDir.toURI().relativize(dir.toURI()).getPath();
+		if (new File(path).isAbsolute()) {
+			throw new IllegalArgumentException("Directory " + dir + " is not inside of repository " + repositoryDir);
+		}
+
+		if (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+
+		return path;
+	}
+
+	private static ObjectId lookup(ObjectReader reader, AnyObjectId commit, String path) throws IOException {
+		RevWalk walk = new RevWalk(reader);
+		try {
+			ObjectId rootTree = walk.parseCommit(commit).getTree();
+			if (path.isEmpty()) {
+				return rootTree;
+			}
+
+			TreeWalk treeWalk = TreeWalk.forPath(reader, path, rootTree);
+			if (treeWalk == null) {
+				return null;
+			}
+
+			try {
+				return treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_TREE ? treeWalk.getObjectId(0) : null;
+			} finally {
+				treeWalk.release();
+			}
+		} finally {
+			walk.release();
+		}
+	}
+
+	/**
+	 * Writes the entries used by this build, unless they are the same as the
+	 * loaded ones. The file is replaced atomically.
+	 */
+	synchronized void store() throws IOException {
+		if (used.equals(loaded)) {
+			return;
+		}
+
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			OutputStream out = new FileOutputStream(tmpFile);
+			try {
+				used.store(out, "Tree ids of project directories, see " + TreeIdCache.class.getName());
+			} finally {
+				out.close();
+			}
+
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+}
@@ -1,45 +1,219 @@
 package com.github.steffentemplin.gradle.release;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-public class Version implements Comparable<Version>, Cloneable {
+/**
+ * Immutable version of the form {@code major.minor.micro[.qualifier]}.
+ * Instances are thread-safe and may be shared freely; derived versions are
+ * created by the {@code with*} methods.
+ */
+public final class Version implements Comparable<Version> {
 	
+	/**
+	 * The grammar of version strings. {@link #parse(CharSequence, int, int)}
+	 * implements it without regular expressions.
+	 */
 	static final String VERSION_PATTERN = "(([1-9][0-9]*|0))\\.(([1-9][0-9]*|0))\\.(([1-9][0-9]*|0))(\\.([0-9a-zA-Z-_\\.]+))?";
+
+	/**
+	 * Qualifiers that are shared instead of being copied out of parsed strings.
+	 */
+	private static final String[] COMMON_QUALIFIERS = { "DEV", "REL", "SNAPSHOT", "RELEASE" };
+	
+	/**
+	 * Upper bound of the intern pool, so that interning arbitrary versions
+	 * cannot grow memory without limit.
+	 */
+	private static final int MAX_INTERNED = 4096;
 	
-	private static final Pattern VERSION = Pattern.compile(VERSION_PATTERN);
+	private static final ConcurrentMap<Version, Version> INTERNED = new ConcurrentHashMap<Version, Version>();
+	
+	static final long NO_KEY = -1L;
 
-	private int major;
+	private final int major;
 
-	private int minor;
+	private final int minor;
 
-	private int micro;
+	private final int micro;
 
-	private String qualifier;
+	private final String qualifier;
+	
+	private final long key;
+	
+	private final int hash;
+	
+	/**
+	 * Lazily cached string form. Racy initialization is harmless because
+	 * every thread computes an equal string.
+	 */
+	private String string;
 	
 	public Version(int major, int minor, int micro, String qualifier) {
+		this(major, minor, micro, qualifier, null);
+	}
+	
+	private Version(int major, int minor, int micro, String qualifier, String string) {
 		super();
 		this.major = major;
 		this.minor = minor;
 		this.micro = micro;
 		this.qualifier = qualifier;
+		this.string = string;
+		this.key = pack(major, minor, micro);
+		int hash = 31 * (31 * major + minor) + micro;
+		if (qualifier != null) {
+			hash = 31 * hash + qualifier.hashCode();
+		}
+		
+		this.hash = hash;
+	}
+	
+	/**
+	 * Packs the numeric components into a single non-negative long whose
+	 * natural order equals the version order: 16 bits for major, 16 bits for
+	 * minor and 31 bits for micro. Returns {@link #NO_KEY} if a component
+	 * does not fit.
+	 */
+	static long pack(int major, int minor, int micro) {
+		if (major < 0 || major > 0xFFFF || minor < 0 || minor > 0xFFFF || micro < 0) {
+			return NO_KEY;
+		}
+		
+		return ((long) major << 47) | ((long) minor << 31) | micro;
 	}
 	
 	public static Version parse(String versionString) {
-		Matcher matcher = VERSION.matcher(versionString);
-		if (matcher.matches()) {
-			try {
-				int major = Integer.parseInt(matcher.group(1));
-				int minor = Integer.parseInt(matcher.group(3));
-				int micro = Integer.parseInt(matcher.group(5));
-				String qualifier = matcher.group(8);
-				return new Version(major, minor, micro, qualifier);
-			} catch (NumberFormatException e) {
-				throw new IllegalArgumentException("Invalid version string: " + versionString, e);
+		return parse(versionString, 0, versionString.length());
+	}
+	
+	/**
+	 * Parses the version string between {@code start} (inclusive) and
+	 * {@code end} (exclusive) of the given character sequence.
+	 * 
+	 * @throws IllegalArgumentException if the range does not denote a valid version
+	 */
+	public static Version parse(CharSequence chars, int start, int end) {
+		Version version = scan(chars, start, end);
+		if (version == null) {
+			throw new IllegalArgumentException("Invalid version string: " + chars.subSequence(start, end));
+		}
+		
+		return version;
+	}
+	
+	/**
+	 * Parses the version that spans from the given start index to the end of
+	 * the given string. Unlike {@link #parse(String)} this method does not
+	 * throw, but returns {@code null} if the string does not denote a valid
+	 * version.
+	 */
+	static Version tryParse(String string, int start) {
+		return scan(string, start, string.length());
+	}
+	
+	/**
+	 * Parses the version between {@code start} (inclusive) and {@code end}
+	 * (exclusive) of the given character sequence. Returns {@code null} if the
+	 * range does not denote a valid version.
+	 */
+	static Version tryParse(CharSequence chars, int start, int end) {
+		return scan(chars, start, end);
+	}
+	
+	/**
+	 * Scans a version according to {@link #VERSION_PATTERN}. Numbers must not
+	 * have leading zeros and must fit into an int. Returns {@code null} if the
+	 * range is not a valid version.
+	 */
+	private static Version scan(CharSequence chars, int start, int end) {
+		int pos = start;
+		int major = 0;
+		int minor = 0;
+		int micro = 0;
+		for (int part = 0; part < 3; part++) {
+			if (part > 0) {
+				if (pos >= end || chars.charAt(pos) != '.') {
+					return null;
+				}
+				
+				pos++;
+			}
+			
+			int numberStart = pos;
+			int number = 0;
+			while (pos < end) {
+				int digit = chars.charAt(pos) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				
+				if (number > (Integer.MAX_VALUE - digit) / 10) {
+					return null;
+				}
+				
+				number = number * 10 + digit;
+				pos++;
+			}
+			
+			int length = pos - numberStart;
+			if (length == 0 || (length > 1 && chars.charAt(numberStart) == '0')) {
+				return null;
+			}
+			
+			if (part == 0) {
+				major = number;
+			} else if (part == 1) {
+				minor = number;
+			} else {
+				micro = number;
+			}
+		}
+		
+		String string = null;
+		if (start == 0 && end == chars.length() && chars instanceof String) {
+			string = (String) chars;
+		}
+		
+		if (pos == end) {
+			return new Version(major, minor, micro, null, string);
+		}
+		
+		if (chars.charAt(pos) != '.' || ++pos == end) {
+			return null;
+		}
+		
+		for (int i = pos; i < end; i++) {
+			if (!isQualifierChar(chars.charAt(i))) {
+				return null;
 			}
 		}
 		
-		throw new IllegalArgumentException("Invalid version string: " + versionString);
+		return new Version(major, minor, micro, qualifier(chars, pos, end), string);
+	}
+	
+	private static String qualifier(CharSequence chars, int start, int end) {
+		for (String common : COMMON_QUALIFIERS) {
+			if (common.length() == end - start && regionMatches(chars, start, common)) {
+				return common;
+			}
+		}
+		
+		return chars.subSequence(start, end).toString();
+	}
+	
+	private static boolean regionMatches(CharSequence chars, int start, String other) {
+		for (int i = 0; i < other.length(); i++) {
+			if (chars.charAt(start + i) != other.charAt(i)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private static boolean isQualifierChar(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '_' || c == '.';
 	}
 	
 	public int getMajor() {
@@ -58,36 +232,65 @@ public class Version implements Comparable<Version>, Cloneable {
 		return qualifier;
 	}
 	
-	public void incrementMajor() {
-		major++;
-	}
-	
-	public void incrementMinor() {
-		minor++;
-	}
-	
-	public void incrementMicro() {
-		micro++;
+	/**
+	 * Returns the packed numeric key of this version as described by
+	 * {@link #pack(int, int, int)}, or {@link #NO_KEY}.
+	 */
+	long getKey() {
+		return key;
 	}
 	
-	public void resetMajor() {
-		major = 0;
+	/**
+	 * Returns the next major version, i.e. with incremented major, reset
+	 * minor and micro and the same qualifier.
+	 */
+	public Version withNextMajor() {
+		return new Version(major + 1, 0, 0, qualifier);
 	}
 	
-	public void resetMinor() {
-		minor = 0;
+	/**
+	 * Returns the next minor version, i.e. with incremented minor, reset
+	 * micro and the same qualifier.
+	 */
+	public Version withNextMinor() {
+		return new Version(major, minor + 1, 0, qualifier);
 	}
 	
-	public void resetMicro() {
-		micro = 0;
+	/**
+	 * Returns the next micro version with the same qualifier.
+	 */
+	public Version withNextMicro() {
+		return new Version(major, minor, micro + 1, qualifier);
 	}
 	
-	public void removeQualifier() {
-		qualifier = null;
+	/**
+	 * Returns this version with the given qualifier, which may be {@code null}.
+	 */
+	public Version withQualifier(String qualifier) {
+		if (qualifier == null ? this.qualifier == null : qualifier.equals(this.qualifier)) {
+			return this;
+		}
+		
+		return new Version(major, minor, micro, qualifier);
 	}
 	
-	public void setQualifier(String qualifier) {
-		this.qualifier = qualifier;
+	/**
+	 * Returns a canonical instance equal to this version. Up to a fixed
+	 * number of distinct versions are pooled; beyond that this version itself
+	 * is returned.
+	 */
+	public Version intern() {
+		Version interned = INTERNED.get(this);
+		if (interned != null) {
+			return interned;
+		}
+		
+		if (INTERNED.size() >= MAX_INTERNED) {
+			return this;
+		}
+		
+		interned = INTERNED.putIfAbsent(this, this);
+		return interned == null ? this : interned;
 	}
 
 	/**
@@ -99,43 +302,64 @@ public class Version implements Comparable<Version>, Cloneable {
 			return 1;
 		}
 		
-		if (major == other.major) {
-			if (minor == other.minor) {
-				if (micro == other.micro) {
-					if (qualifier == null) {
-						if (other.qualifier != null) {
-							return 1;
-						}
-						
-						return 0;
-					} else {
-						if (other.qualifier == null) {
-							return -1;
-						}
-						
-						return qualifier.compareTo(other.qualifier);
-					}
-				}
-				
-				return micro - other.micro;
+		int cmp = compareNumbers(other);
+		if (cmp != 0) {
+			return cmp;
+		}
+		
+		return compareQualifiers(qualifier, other.qualifier);
+	}
+	
+	/**
+	 * Compares major, minor and micro of two versions, ignoring their
+	 * qualifiers.
+	 */
+	int compareNumbers(Version other) {
+		if (key != NO_KEY && other.key != NO_KEY) {
+			if (key != other.key) {
+				return key < other.key ? -1 : 1;
 			}
-			
-			return minor - other.minor;
+		} else if (major != other.major) {
+			return major < other.major ? -1 : 1;
+		} else if (minor != other.minor) {
+			return minor < other.minor ? -1 : 1;
+		} else if (micro != other.micro) {
+			return micro < other.micro ? -1 : 1;
 		}
 		
-		return major - other.major;
+		return 0;
+	}
+	
+	/**
+	 * A version without qualifier is higher than any qualified version of
+	 * the same major, minor and micro.
+	 */
+	static int compareQualifiers(String qualifier, String otherQualifier) {
+		if (qualifier == null) {
+			return otherQualifier == null ? 0 : 1;
+		}
+		
+		if (otherQualifier == null) {
+			return -1;
+		}
+		
+		return qualifier.compareTo(otherQualifier);
 	}
 	
 	@Override
 	public int hashCode() {
-		return toString().hashCode();
+		return hash;
 	}
 	
 	@Override
 	public boolean equals(Object obj) {
-		if (obj != null && obj instanceof Version) {
+		if (obj == this) {
+			return true;
+		}
+		
+		if (obj instanceof Version) {
 			Version other = (Version) obj;
-			return compareTo(other) == 0;
+			return hash == other.hash && compareTo(other) == 0;
 		}
 		
 		return false;
@@ -143,17 +367,19 @@ public class Version implements Comparable<Version>, Cloneable {
 	
 	@Override
 	public String toString() {
-		String baseVersion = String.format("%d.%d.%d", major, minor, micro);
-		if (qualifier == null) {
-			return baseVersion;
+		String string = this.string;
+		if (string == null) {
+			StringBuilder sb = new StringBuilder(qualifier == null ? 16 : 17 + qualifier.length());
+			sb.append(major).append('.').append(minor).append('.').append(micro);
+			if (qualifier != null) {
+				sb.append('.').append(qualifier);
+			}
+			
+			string = sb.toString();
+			this.string = string;
 		}
 		
-		return baseVersion + '.' + qualifier;
-	}
-	
-	@Override
-	protected Version clone() {
-		return new Version(major, minor, micro, qualifier);
+		return string;
 	}
 
 }
@@ -0,0 +1,122 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of determined project versions. The cache file records the
+ * {@link RefState} fingerprint it was written for; if the fingerprint of the
+ * repository differs on load, the cached versions are discarded.
+ */
+class VersionCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(VersionCache.class);
+
+	private static final String FINGERPRINT_KEY = "fingerprint";
+
+	private static final String KEY_PREFIX = "version.";
+
+	private final File file;
+
+	private final Properties properties;
+
+	private boolean modified;
+
+	private VersionCache(File file, Properties properties) {
+		super();
+		this.file = file;
+		this.properties = properties;
+	}
+
+	/**
+	 * Loads the cache from the given file. Returns an empty cache if the file
+	 * does not exist, cannot be read or belongs to another fingerprint.
+	 */
+	static VersionCache load(File file, String fingerprint) {
+		Properties properties = new Properties();
+		if (file.isFile()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				LOG.warn("Could not read version cache " + file, e);
+				properties.clear();
+			}
+
+			if (!fingerprint.equals(properties.getProperty(FINGERPRINT_KEY))) {
+				LOG.debug("Ref state changed, discarding version cache " + file);
+				properties.clear();
+			}
+		}
+
+		properties.setProperty(FINGERPRINT_KEY, fingerprint);
+		return new VersionCache(file, properties);
+	}
+
+	/**
+	 * Returns whether the cache contains no versions, e.g. because the ref
+	 * state changed since it was written.
+	 */
+	synchronized boolean isEmpty() {
+		return properties.size() <= 1;
+	}
+
+	synchronized Version get(String key) {
+		String version = properties.getProperty(KEY_PREFIX + key);
+		if (version == null) {
+			return null;
+		}
+
+		return Version.parse(version);
+	}
+
+	synchronized void put(String key, Version version) {
+		properties.setProperty(KEY_PREFIX + key, version.toString());
+		modified = true;
+	}
+
+	/**
+	 * Writes the cache back to disk if it was modified. The file is replaced
+	 * atomically, so concurrent builds never read a partially written cache.
+	 */
+	synchronized void store() throws IOException {
+		if (!modified) {
+			return;
+		}
+
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			OutputStream out = new FileOutputStream(tmpFile);
+			try {
+				properties.store(out, "Determined project versions, see " + VersionCache.class.getName());
+			} finally {
+				out.close();
+			}
+
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			modified = false;
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+}
@@ -0,0 +1,390 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Sorted, immutable set of versions stored in primitive arrays. Each version
+ * is represented by its packed numeric key (see {@link Version#getKey()}) and
+ * the rank of its qualifier within a shared, sorted qualifier table, so
+ * lookups are binary searches over a {@code long[]} without touching
+ * {@link Version} objects. Versions are only materialized when returned.
+ * <p>
+ * Only versions with a packed key can be indexed, i.e. major and minor must
+ * not exceed 65535.
+ */
+public final class VersionIndex {
+
+	/**
+	 * Rank of the missing qualifier. It is the highest rank, because an
+	 * unqualified version is higher than any qualified one.
+	 */
+	private static final int NO_QUALIFIER = Integer.MAX_VALUE;
+
+	private static final VersionIndex EMPTY = new VersionIndex(new long[0], new int[0], new String[0]);
+
+	private final long[] keys;
+
+	private final int[] qualifierRanks;
+
+	private final String[] qualifiers;
+
+	private VersionIndex(long[] keys, int[] qualifierRanks, String[] qualifiers) {
+		super();
+		this.keys = keys;
+		this.qualifierRanks = qualifierRanks;
+		this.qualifiers = qualifiers;
+	}
+
+	public static VersionIndex empty() {
+		return EMPTY;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	public boolean isEmpty() {
+		return keys.length == 0;
+	}
+
+	/**
+	 * Returns the version at the given position in ascending order.
+	 */
+	public Version get(int index) {
+		long key = keys[index];
+		int major = (int) (key >>> 47);
+		int minor = (int) ((key >>> 31) & 0xFFFF);
+		int micro = (int) (key & 0x7FFFFFFF);
+		return new Version(major, minor, micro, qualifierAt(index));
+	}
+
+	/**
+	 * Returns the highest version or {@code null} if the index is empty.
+	 */
+	public Version last() {
+		return keys.length == 0 ? null : get(keys.length - 1);
+	}
+
+	/**
+	 * Returns the lowest version or {@code null} if the index is empty.
+	 */
+	public Version first() {
+		return keys.length == 0 ? null : get(0);
+	}
+
+	/**
+	 * Returns the highest version lower than or equal to the given one.
+	 */
+	public Version floor(Version version) {
+		return getOrNull(upperBound(version) - 1);
+	}
+
+	/**
+	 * Returns the highest version strictly lower than the given one.
+	 */
+	public Version lower(Version version) {
+		return getOrNull(lowerBound(version) - 1);
+	}
+
+	/**
+	 * Returns the lowest version higher than or equal to the given one.
+	 */
+	public Version ceiling(Version version) {
+		return getOrNull(lowerBound(version));
+	}
+
+	/**
+	 * Returns the lowest version strictly higher than the given one.
+	 */
+	public Version higher(Version version) {
+		return getOrNull(upperBound(version));
+	}
+
+	public boolean contains(Version version) {
+		int index = lowerBound(version);
+		return index < keys.length && compareAt(index, version.getKey(), qualifierOrder(version.getQualifier())) == 0;
+	}
+
+	/**
+	 * Returns all versions between {@code from} (inclusive) and {@code to}
+	 * (exclusive) in ascending order.
+	 */
+	public List<Version> range(Version from, Version to) {
+		return subList(lowerBound(from), lowerBound(to));
+	}
+
+	/**
+	 * Returns all versions of the given major line, e.g. all 3.x.y versions.
+	 */
+	public List<Version> line(int major) {
+		return subList(lowerBoundKey(Version.pack(major, 0, 0)), lowerBoundKey(Version.pack(major + 1, 0, 0)));
+	}
+
+	/**
+	 * Returns all versions of the given minor line, e.g. all 3.1.x versions.
+	 */
+	public List<Version> line(int major, int minor) {
+		return subList(lowerBoundKey(Version.pack(major, minor, 0)), lowerBoundKey(nextMinorKey(major, minor)));
+	}
+
+	/**
+	 * Returns the unqualified version following the highest micro version of
+	 * the given minor line, or {@code major.minor.0} if the line is empty.
+	 */
+	public Version nextFreeMicro(int major, int minor) {
+		int end = lowerBoundKey(nextMinorKey(major, minor));
+		if (end > 0) {
+			Version highest = get(end - 1);
+			if (highest.getMajor() == major && highest.getMinor() == minor) {
+				return new Version(major, minor, highest.getMicro() + 1, null);
+			}
+		}
+
+		return new Version(major, minor, 0, null);
+	}
+
+	/**
+	 * Returns the position of the first version greater than or equal to the
+	 * given one, or {@link #size()} if there is none.
+	 */
+	public int lowerBound(Version version) {
+		long key = checkKey(version);
+		long order = qualifierOrder(version.getQualifier());
+		int low = 0;
+		int high = keys.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareAt(mid, key, order) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the position of the first version strictly greater than the
+	 * given one, or {@link #size()} if there is none.
+	 */
+	public int upperBound(Version version) {
+		long key = checkKey(version);
+		long order = qualifierOrder(version.getQualifier());
+		int low = 0;
+		int high = keys.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareAt(mid, key, order) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the position of the first version greater than the given one,
+	 * or greater than or equal to it if {@code inclusive} is {@code true}. A
+	 * version without qualifier stands for all versions with its numbers, so
+	 * the position is before or after all of them. Unlike
+	 * {@link #lowerBound(Version)} and {@link #upperBound(Version)}, versions
+	 * that cannot be indexed are accepted.
+	 */
+	int position(Version version, boolean inclusive) {
+		if (version.getKey() != Version.NO_KEY) {
+			if (inclusive && version.getQualifier() == null) {
+				return lowerBoundKey(version.getKey());
+			}
+
+			// the unqualified version is the highest one of its numbers
+			return inclusive ? lowerBound(version) : upperBound(version);
+		}
+
+		// higher than every indexed version of its major line, or of all lines
+		if (version.getMajor() >= 0xFFFF) {
+			return keys.length;
+		}
+
+		return lowerBoundKey(Version.pack(version.getMajor() + 1, 0, 0));
+	}
+
+	/**
+	 * Returns the position of the first version whose numeric key is greater
+	 * than or equal to the given key, regardless of qualifiers.
+	 */
+	int lowerBoundKey(long key) {
+		if (key == Version.NO_KEY) {
+			return keys.length;
+		}
+
+		int index = Arrays.binarySearch(keys, key);
+		if (index < 0) {
+			return -index - 1;
+		}
+
+		while (index > 0 && keys[index - 1] == key) {
+			index--;
+		}
+
+		return index;
+	}
+
+	/**
+	 * Returns the versions between the given positions as a list view that
+	 * materializes versions on access.
+	 */
+	public List<Version> subList(final int fromIndex, final int toIndex) {
+		if (fromIndex >= toIndex) {
+			return Collections.emptyList();
+		}
+
+		return new AbstractList<Version>() {
+
+			@Override
+			public Version get(int index) {
+				if (index < 0 || index >= size()) {
+					throw new IndexOutOfBoundsException(String.valueOf(index));
+				}
+
+				return VersionIndex.this.get(fromIndex + index);
+			}
+
+			@Override
+			public int size() {
+				return toIndex - fromIndex;
+			}
+		};
+	}
+
+	private static long nextMinorKey(int major, int minor) {
+		if (minor < 0xFFFF) {
+			return Version.pack(major, minor + 1, 0);
+		}
+
+		return Version.pack(major + 1, 0, 0);
+	}
+
+	private Version getOrNull(int index) {
+		if (index < 0 || index >= keys.length) {
+			return null;
+		}
+
+		return get(index);
+	}
+
+	private String qualifierAt(int index) {
+		int rank = qualifierRanks[index];
+		return rank == NO_QUALIFIER ? null : qualifiers[rank];
+	}
+
+	/**
+	 * Returns the position of the given qualifier in the order of the
+	 * qualifier table, so that qualifiers are compared as numbers during a
+	 * search. A qualifier with rank {@code r} is at {@code 2r + 1}, one that
+	 * is not in the table at {@code 2r} if it sorts right before rank
+	 * {@code r}.
+	 */
+	private long qualifierOrder(String qualifier) {
+		if (qualifier == null) {
+			return rankOrder(NO_QUALIFIER);
+		}
+
+		int rank = Arrays.binarySearch(qualifiers, qualifier);
+		return rank >= 0 ? rankOrder(rank) : 2L * (-rank - 1);
+	}
+
+	private static long rankOrder(int rank) {
+		return 2L * rank + 1;
+	}
+
+	private int compareAt(int index, long key, long qualifierOrder) {
+		long indexKey = keys[index];
+		if (indexKey != key) {
+			return indexKey < key ? -1 : 1;
+		}
+
+		long indexOrder = rankOrder(qualifierRanks[index]);
+		return indexOrder < qualifierOrder ? -1 : (indexOrder == qualifierOrder ? 0 : 1);
+	}
+
+	private static long checkKey(Version version) {
+		long key = version.getKey();
+		if (key == Version.NO_KEY) {
+			throw new IllegalArgumentException("Version cannot be indexed: " + version);
+		}
+
+		return key;
+	}
+
+	/**
+	 * Collects versions for a {@link VersionIndex}. Builders are not
+	 * thread-safe.
+	 */
+	public static final class Builder {
+
+		private final List<Version> versions = new ArrayList<Version>();
+
+		private Builder() {
+			super();
+		}
+
+		/**
+		 * Adds the given version. Returns {@code false} if the version cannot
+		 * be indexed because its components are too large.
+		 */
+		public boolean add(Version version) {
+			if (version.getKey() == Version.NO_KEY) {
+				return false;
+			}
+
+			versions.add(version);
+			return true;
+		}
+
+		public VersionIndex build() {
+			if (versions.isEmpty()) {
+				return EMPTY;
+			}
+
+			TreeSet<String> qualifierSet = new TreeSet<String>();
+			for (Version version : versions) {
+				if (version.getQualifier() != null) {
+					qualifierSet.add(version.getQualifier());
+				}
+			}
+
+			String[] qualifiers = qualifierSet.toArray(new String[qualifierSet.size()]);
+			Version[] sorted = versions.toArray(new Version[versions.size()]);
+			Arrays.sort(sorted);
+			long[] keys = new long[sorted.length];
+			int[] qualifierRanks = new int[sorted.length];
+			int size = 0;
+			for (Version version : sorted) {
+				if (size > 0 && version.equals(sorted[size - 1])) {
+					continue;
+				}
+
+				sorted[size] = version;
+				keys[size] = version.getKey();
+				String qualifier = version.getQualifier();
+				qualifierRanks[size] = qualifier == null ? NO_QUALIFIER : Arrays.binarySearch(qualifiers, qualifier);
+				size++;
+			}
+
+			return new VersionIndex(Arrays.copyOf(keys, size), Arrays.copyOf(qualifierRanks, size), qualifiers);
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Determined versions of all projects of a build at a given commit. A manifest
+ * is written once, e.g. by the first job of a CI pipeline, and read by builds
+ * of other checkouts of the same commit instead of determining the versions
+ * again. Those builds do not need the tags and branches of the repository.
+ * The manifest also records whether it was written by a release build,
+ * because {@code -Prelease} changes the qualifiers of the versions.
+ */
+class VersionManifest {
+
+	private static final String COMMIT_KEY = "commit";
+
+	private static final String RELEASE_KEY = "release";
+
+	private static final String KEY_PREFIX = "version.";
+
+	private final File file;
+
+	private final String commit;
+
+	private final boolean release;
+
+	private final Properties properties;
+
+	private VersionManifest(File file, String commit, boolean release, Properties properties) {
+		super();
+		this.file = file;
+		this.commit = commit;
+		this.release = release;
+		this.properties = properties;
+	}
+
+	/**
+	 * Reads the manifest from the given file.
+	 */
+	static VersionManifest load(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+
+		String commit = properties.getProperty(COMMIT_KEY);
+		if (commit == null) {
+			throw new IOException("Version manifest " + file + " does not contain a commit id");
+		}
+
+		String release = properties.getProperty(RELEASE_KEY);
+		if (release == null) {
+			throw new IOException("Version manifest " + file + " does not contain the release flag");
+		}
+
+		return new VersionManifest(file, commit, Boolean.parseBoolean(release), properties);
+	}
+
+	/**
+	 * Writes a manifest with the given versions by project path. The file is
+	 * replaced atomically.
+	 */
+	static void store(File file, String commit, boolean release, Map<String, Version> versions) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(COMMIT_KEY, commit);
+		properties.setProperty(RELEASE_KEY, String.valueOf(release));
+		for (Map.Entry<String, Version> entry : versions.entrySet()) {
+			properties.setProperty(KEY_PREFIX + entry.getKey(), entry.getValue().toString());
+		}
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			OutputStream out = new FileOutputStream(tmpFile);
+			try {
+				properties.store(out, "Project versions at commit " + commit);
+			} finally {
+				out.close();
+			}
+
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	String getCommit() {
+		return commit;
+	}
+
+	/**
+	 * Returns whether the versions were determined by a release build.
+	 */
+	boolean isRelease() {
+		return release;
+	}
+
+	/**
+	 * Returns the version of the project with the given path or {@code null}
+	 * if the manifest does not contain the project.
+	 */
+	Version getVersion(String projectPath) {
+		String version = properties.getProperty(KEY_PREFIX + projectPath);
+		if (version == null) {
+			return null;
+		}
+
+		return Version.parse(version);
+	}
+
+}
@@ -0,0 +1,296 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable version range written in OSGi syntax, e.g. {@code [1.2,2.0)}. A
+ * single version such as {@code 1.2} denotes all versions greater than or
+ * equal to it. Missing components of the bounds are zero.
+ * <p>
+ * A bound without qualifier stands for all versions with its major, minor
+ * and micro, whatever their qualifier: an inclusive bound includes them all
+ * and an exclusive bound excludes them all. So {@code [1.2,2.0)} contains
+ * {@code 1.2.0.DEV}, {@code 1.2.0.REL} and {@code 1.2.0}, but neither
+ * {@code 2.0.0.DEV} nor {@code 2.0.0.REL}. Qualified bounds are compared by
+ * the ordering of {@link Version}. Either way, every range is a contiguous
+ * section of a {@link VersionIndex}.
+ * <p>
+ * A range is parsed once and can then be matched against many versions. The
+ * matching methods that take a {@link VersionIndex} locate the range with
+ * two binary searches and do not create {@link Version} objects.
+ */
+public final class VersionRange {
+
+	private final Version low;
+
+	private final boolean lowInclusive;
+
+	private final Version high;
+
+	private final boolean highInclusive;
+
+	/**
+	 * Creates a range between the given bounds. {@code high} may be
+	 * {@code null} for a range without upper bound.
+	 */
+	public VersionRange(Version low, boolean lowInclusive, Version high, boolean highInclusive) {
+		super();
+		if (low == null) {
+			throw new IllegalArgumentException("Lower bound must not be null");
+		}
+
+		this.low = low;
+		this.lowInclusive = lowInclusive;
+		this.high = high;
+		this.highInclusive = high != null && highInclusive;
+	}
+
+	/**
+	 * Returns the range of all versions greater than or equal to the given one.
+	 */
+	public static VersionRange atLeast(Version version) {
+		return new VersionRange(version, true, null, false);
+	}
+
+	/**
+	 * Parses a range such as {@code [1.2,2.0)}, {@code (1.0.0,1.5.0]} or
+	 * {@code 1.2.3}. An empty upper bound, as in {@code (1.0,)}, denotes a
+	 * range without upper bound.
+	 *
+	 * @throws IllegalArgumentException if the string is not a valid range
+	 */
+	public static VersionRange parse(String range) {
+		String trimmed = range.trim();
+		if (trimmed.isEmpty()) {
+			throw new IllegalArgumentException("Invalid version range: " + range);
+		}
+
+		char first = trimmed.charAt(0);
+		if (first != '[' && first != '(') {
+			return atLeast(parseBound(trimmed, range));
+		}
+
+		char last = trimmed.charAt(trimmed.length() - 1);
+		int comma = trimmed.indexOf(',');
+		if ((last != ']' && last != ')') || comma < 0) {
+			throw new IllegalArgumentException("Invalid version range: " + range);
+		}
+
+		Version low = parseBound(trimmed.substring(1, comma).trim(), range);
+		String highBound = trimmed.substring(comma + 1, trimmed.length() - 1).trim();
+		Version high = highBound.isEmpty() ? null : parseBound(highBound, range);
+		return new VersionRange(low, first == '[', high, last == ']');
+	}
+
+	/**
+	 * Parses a bound with one to three numeric components and an optional
+	 * qualifier after the third one.
+	 */
+	private static Version parseBound(String bound, String range) {
+		int dots = 0;
+		for (int i = 0; i < bound.length(); i++) {
+			if (bound.charAt(i) == '.') {
+				dots++;
+			}
+		}
+
+		String versionString;
+		if (dots == 0) {
+			versionString = bound + ".0.0";
+		} else if (dots == 1) {
+			versionString = bound + ".0";
+		} else {
+			versionString = bound;
+		}
+
+		Version version = Version.tryParse(versionString, 0);
+		if (version == null) {
+			throw new IllegalArgumentException("Invalid version " + bound + " in range " + range);
+		}
+
+		return version;
+	}
+
+	public Version getLow() {
+		return low;
+	}
+
+	public boolean isLowInclusive() {
+		return lowInclusive;
+	}
+
+	/**
+	 * Returns the upper bound or {@code null} if the range has none.
+	 */
+	public Version getHigh() {
+		return high;
+	}
+
+	public boolean isHighInclusive() {
+		return highInclusive;
+	}
+
+	/**
+	 * Returns whether no version is contained in the range.
+	 */
+	public boolean isEmpty() {
+		if (high == null) {
+			return false;
+		}
+
+		int cmp = low.compareNumbers(high);
+		if (cmp != 0) {
+			return cmp > 0;
+		}
+
+		// the bounds denote positions within the versions of the same numbers
+		if (low.getQualifier() == null) {
+			return !lowInclusive || (high.getQualifier() == null && !highInclusive);
+		}
+
+		if (high.getQualifier() == null) {
+			return !highInclusive;
+		}
+
+		cmp = Version.compareQualifiers(low.getQualifier(), high.getQualifier());
+		return cmp > 0 || (cmp == 0 && !(lowInclusive && highInclusive));
+	}
+
+	public boolean includes(Version version) {
+		int cmp = compareToBound(version, low);
+		if (cmp < 0 || (cmp == 0 && !lowInclusive)) {
+			return false;
+		}
+
+		if (high == null) {
+			return true;
+		}
+
+		cmp = compareToBound(version, high);
+		return cmp < 0 || (cmp == 0 && highInclusive);
+	}
+
+	/**
+	 * Compares a version with a bound. A bound without qualifier is equal to
+	 * all versions with its numbers.
+	 */
+	private static int compareToBound(Version version, Version bound) {
+		if (bound.getQualifier() == null) {
+			return version.compareNumbers(bound);
+		}
+
+		return version.compareTo(bound);
+	}
+
+	/**
+	 * Returns the versions of the given collection that are contained in the
+	 * range, in iteration order.
+	 */
+	public List<Version> filter(Collection<? extends Version> versions) {
+		List<Version> matches = new ArrayList<Version>();
+		for (Version version : versions) {
+			if (includes(version)) {
+				matches.add(version);
+			}
+		}
+
+		return matches;
+	}
+
+	/**
+	 * Returns the versions of the given index that are contained in the range
+	 * as a view on the index.
+	 */
+	public List<Version> filter(VersionIndex index) {
+		return index.subList(fromIndex(index), toIndex(index));
+	}
+
+	/**
+	 * Returns the highest version of the given index that is contained in the
+	 * range or {@code null} if there is none.
+	 */
+	public Version highest(VersionIndex index) {
+		int from = fromIndex(index);
+		int to = toIndex(index);
+		return from < to ? index.get(to - 1) : null;
+	}
+
+	/**
+	 * Returns the position of the first version of the given index that is
+	 * contained in the range.
+	 */
+	public int fromIndex(VersionIndex index) {
+		return index.position(low, lowInclusive);
+	}
+
+	/**
+	 * Returns the position after the last version of the given index that is
+	 * contained in the range. If it is not greater than {@link #fromIndex},
+	 * no version is contained.
+	 */
+	public int toIndex(VersionIndex index) {
+		if (high == null) {
+			return index.size();
+		}
+
+		return index.position(high, !highInclusive);
+	}
+
+	/**
+	 * Matches many ranges against one index. For range {@code i}, the result
+	 * contains the start position at {@code 2 * i} and the end position at
+	 * {@code 2 * i + 1}; the contained versions are those in between.
+	 */
+	public static int[] bounds(VersionIndex index, List<VersionRange> ranges) {
+		int[] bounds = new int[ranges.size() * 2];
+		for (int i = 0; i < ranges.size(); i++) {
+			VersionRange range = ranges.get(i);
+			int from = range.fromIndex(index);
+			bounds[2 * i] = from;
+			bounds[2 * i + 1] = Math.max(from, range.toIndex(index));
+		}
+
+		return bounds;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = low.hashCode();
+		result = 31 * result + (lowInclusive ? 1 : 0);
+		result = 31 * result + (high == null ? 0 : high.hashCode());
+		result = 31 * result + (highInclusive ? 1 : 0);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof VersionRange)) {
+			return false;
+		}
+
+		VersionRange other = (VersionRange) obj;
+		return low.equals(other.low) && lowInclusive == other.lowInclusive && (high == null ? other.high == null : high.equals(other.high)) && highInclusive == other.highInclusive;
+	}
+
+	@Override
+	public String toString() {
+		if (high == null && lowInclusive) {
+			return low.toString();
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(lowInclusive ? '[' : '(').append(low).append(',');
+		if (high != null) {
+			sb.append(high);
+		}
+
+		return sb.append(highInclusive ? ']' : ')').toString();
+	}
+
+}
@@ -0,0 +1,329 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ref state of a repository that is kept in memory for the lifetime of the
+ * Gradle daemon. It holds the current branch, the remotes and the queried
+ * release refs of all projects, and watches {@code HEAD}, {@code config},
+ * {@code packed-refs} and the {@code refs} directories for changes. A changed
+ * loose ref only invalidates the projects it could belong to; a rewritten
+ * {@code packed-refs} file invalidates all of them. Builds that find
+ * everything in memory determine versions without reading any ref.
+ * <p>
+ * Watch events are handled by a background thread, so a build started right
+ * after a ref changed could still see the old state. Each build therefore
+ * first processes the events that are already queued. Changes that the file
+ * system has not reported yet are treated like changes made during the
+ * build.
+ * <p>
+ * There is one service per {@code .git} directory. A service stops watching
+ * when it has not been used for an hour.
+ */
+final class VersionService {
+
+	private static final Logger LOG = LoggerFactory.getLogger(VersionService.class);
+
+	private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private static final long IDLE_CHECK_MINUTES = 5;
+
+	private static final String LOCK_SUFFIX = ".lock";
+
+	private static final ConcurrentMap<File, VersionService> SERVICES = new ConcurrentHashMap<File, VersionService>();
+
+	private final File gitDir;
+
+	private final Path gitPath;
+
+	private final WatchService watchService;
+
+	private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+
+	private String currentBranch;
+
+	private List<String> remotes;
+
+	private RefIndex refIndex;
+
+	private boolean warm;
+
+	private volatile long lastAccess = System.currentTimeMillis();
+
+	private volatile boolean closed;
+
+	private VersionService(File gitDir, WatchService watchService) {
+		super();
+		this.gitDir = gitDir;
+		this.gitPath = gitDir.toPath();
+		this.watchService = watchService;
+	}
+
+	/**
+	 * Returns the service of the given {@code .git} directory and starts it if
+	 * necessary. Returns {@code null} if the file system of the directory
+	 * cannot be watched reliably.
+	 */
+	static VersionService get(File gitDir) {
+		File key = gitDir.getAbsoluteFile();
+		synchronized (SERVICES) {
+			VersionService service = SERVICES.get(key);
+			if (service == null || service.closed) {
+				try {
+					service = start(key);
+				} catch (IOException e) {
+					LOG.info("Could not watch repository " + key + ", versions are not kept between builds", e);
+					return null;
+				}
+
+				if (service == null) {
+					return null;
+				}
+
+				SERVICES.put(key, service);
+			}
+
+			service.lastAccess = System.currentTimeMillis();
+			return service;
+		}
+	}
+
+	private static VersionService start(File gitDir) throws IOException {
+		WatchService watchService = gitDir.toPath().getFileSystem().newWatchService();
+		if (watchService.getClass().getName().endsWith("PollingWatchService")) {
+			// changes would be noticed seconds after they happened
+			watchService.close();
+			LOG.info("File system of repository " + gitDir + " does not report changes, versions are not kept between builds");
+			return null;
+		}
+
+		final VersionService service = new VersionService(gitDir, watchService);
+		try {
+			synchronized (service) {
+				service.register(service.gitPath);
+				service.registerAll(service.gitPath.resolve("refs"));
+			}
+		} catch (IOException e) {
+			watchService.close();
+			throw e;
+		}
+
+		Thread watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				service.watch();
+			}
+		}, "Release plugin ref watcher for " + gitDir);
+		watcher.setDaemon(true);
+		watcher.start();
+		LOG.debug("Started watching refs of repository " + gitDir);
+		return service;
+	}
+
+	/**
+	 * Returns the name of the current branch, or the id of the current commit
+	 * if {@code HEAD} is detached.
+	 */
+	synchronized String getCurrentBranch() throws IOException {
+		if (currentBranch == null) {
+			currentBranch = RefState.readCurrentBranch(gitDir);
+		}
+
+		return currentBranch;
+	}
+
+	/**
+	 * Returns the names of the remotes defined in the repository config.
+	 */
+	synchronized List<String> getRemotes() throws IOException {
+		if (remotes == null) {
+			remotes = RefState.readRemotes(gitDir);
+		}
+
+		return remotes;
+	}
+
+	/**
+	 * Returns the ref index for the given remotes. Refs that were queried by
+	 * earlier builds and did not change since are not queried again.
+	 */
+	synchronized RefIndex getRefIndex(List<String> remotes, VersionTimings timings) {
+		if (refIndex == null || !refIndex.getRemotes().equals(remotes)) {
+			refIndex = new RefIndex(new FileRefNameSource(gitDir), remotes, timings);
+		}
+
+		return refIndex.withTimings(timings);
+	}
+
+	/**
+	 * Returns whether a build already used this service. From then on, the
+	 * in-memory state is complete and the persistent version cache is not
+	 * needed.
+	 */
+	synchronized boolean isWarm() {
+		return warm;
+	}
+
+	/**
+	 * Processes the queued watch events, so that the refs that changed since
+	 * the previous build are invalidated. Must be called before the state is
+	 * used by a build.
+	 */
+	synchronized void buildStarted() {
+		try {
+			WatchKey key;
+			while ((key = watchService.poll()) != null) {
+				process(key);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// changes are no longer noticed
+			invalidateAll();
+		}
+
+		lastAccess = System.currentTimeMillis();
+	}
+
+	synchronized void buildFinished() {
+		warm = true;
+		lastAccess = System.currentTimeMillis();
+	}
+
+	private void watch() {
+		try {
+			while (!closed) {
+				WatchKey key = watchService.poll(IDLE_CHECK_MINUTES, TimeUnit.MINUTES);
+				if (key != null) {
+					process(key);
+				} else if (System.currentTimeMillis() - lastAccess > IDLE_TIMEOUT_MILLIS) {
+					close();
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			LOG.warn("Stopped watching refs of repository " + gitDir, e);
+		} finally {
+			close();
+		}
+	}
+
+	private synchronized void process(WatchKey key) {
+		Path dir = watchedDirs.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+				invalidateAll();
+				continue;
+			}
+
+			Path path = dir.resolve((Path) event.context());
+			String name = gitPath.relativize(path).toString().replace(File.separatorChar, '/');
+			if (name.endsWith(LOCK_SUFFIX)) {
+				continue;
+			}
+
+			if (dir.equals(gitPath)) {
+				if (name.equals("HEAD")) {
+					currentBranch = null;
+				} else if (name.equals("config")) {
+					remotes = null;
+					refIndex = null;
+				} else if (name.equals("packed-refs")) {
+					invalidateAll();
+				} else if (name.equals("refs")) {
+					registerNew(path);
+				}
+			} else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				registerNew(path);
+			} else if (refIndex != null) {
+				refIndex.invalidate(name);
+			}
+		}
+
+		if (!key.reset()) {
+			watchedDirs.remove(key);
+		}
+	}
+
+	private void invalidateAll() {
+		currentBranch = null;
+		remotes = null;
+		if (refIndex != null) {
+			refIndex.invalidateAll();
+		}
+	}
+
+	/**
+	 * Starts watching a directory that was created after the service was
+	 * started. Refs in it may have been written before it was registered.
+	 */
+	private void registerNew(Path dir) {
+		try {
+			registerAll(dir);
+		} catch (IOException e) {
+			LOG.warn("Could not watch directory " + dir + ", stopped watching refs of repository " + gitDir, e);
+			close();
+		}
+
+		if (refIndex != null) {
+			refIndex.invalidateAll();
+		}
+	}
+
+	private void registerAll(Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				register(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void register(Path dir) throws IOException {
+		WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		watchedDirs.put(key, dir);
+	}
+
+	private void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		SERVICES.remove(gitDir, this);
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			LOG.debug("Could not close watch service of repository " + gitDir, e);
+		}
+
+		LOG.debug("Stopped watching refs of repository " + gitDir);
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.github.steffentemplin.gradle.release;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects the time spent determining versions during a build. Each phase is
+ * also recorded as Java Flight Recorder event if the JVM supports JFR, and
+ * the totals can be written to a report file when the build finishes.
+ */
+class VersionTimings {
+
+	static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+	private static final int SLOWEST_PROJECTS = 10;
+
+	enum Phase {
+		REPOSITORY_OPEN, REF_QUERY, DETERMINE_VERSION
+	}
+
+	private final List<ProjectTiming> projectTimings = new ArrayList<ProjectTiming>();
+
+	private long repositoryOpenNanos;
+
+	private long refQueryNanos;
+
+	private int refCount;
+
+	private int matchedVersionCount;
+
+	/**
+	 * Starts measuring the given phase. The returned probe must be passed to
+	 * the matching completion method.
+	 */
+	Probe start(Phase phase) {
+		Object event = JFR_AVAILABLE ? JfrEvents.begin(phase) : null;
+		return new Probe(event);
+	}
+
+	synchronized void repositoryOpened(Probe probe, File repositoryDir) {
+		repositoryOpenNanos += probe.elapsed();
+		if (probe.event != null) {
+			JfrEvents.commitRepositoryOpen(probe.event, repositoryDir.getPath());
+		}
+	}
+
+	/**
+	 * Records a query of release refs, i.e. listing the refs with the given
+	 * prefixes, matching versions in their names and indexing the versions.
+	 */
+	synchronized void refsQueried(Probe probe, int refCount, int matchedVersionCount) {
+		refQueryNanos += probe.elapsed();
+		this.refCount += refCount;
+		this.matchedVersionCount += matchedVersionCount;
+		if (probe.event != null) {
+			JfrEvents.commitRefQuery(probe.event, refCount, matchedVersionCount);
+		}
+	}
+
+	synchronized void versionDetermined(Probe probe, String project, int refsScanned, int matchedVersions, Version version, boolean cached) {
+		projectTimings.add(new ProjectTiming(project, probe.elapsed(), refsScanned, matchedVersions, version.toString(), cached));
+		if (probe.event != null) {
+			JfrEvents.commitDetermineVersion(probe.event, project, refsScanned, matchedVersions, version.toString(), cached);
+		}
+	}
+
+	/**
+	 * Writes the totals and the slowest projects to the given file.
+	 */
+	synchronized void writeReport(File file) throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+
+		long projectNanos = 0;
+		int cachedCount = 0;
+		for (ProjectTiming timing : projectTimings) {
+			projectNanos += timing.nanos;
+			if (timing.cached) {
+				cachedCount++;
+			}
+		}
+
+		List<ProjectTiming> slowest = new ArrayList<ProjectTiming>(projectTimings);
+		Collections.sort(slowest, new Comparator<ProjectTiming>() {
+			@Override
+			public int compare(ProjectTiming t1, ProjectTiming t2) {
+				return t1.nanos < t2.nanos ? 1 : (t1.nanos > t2.nanos ? -1 : 0);
+			}
+		});
+
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			writer.println("Version determination timings");
+			writer.println();
+			writer.println(String.format(Locale.ROOT, "%-18s %10s", "repository open", millis(repositoryOpenNanos)));
+			writer.println(String.format(Locale.ROOT, "%-18s %10s  %d refs, %d matched versions", "ref queries", millis(refQueryNanos), refCount, matchedVersionCount));
+			writer.println(String.format(Locale.ROOT, "%-18s %10s  %d projects, %d cached", "projects", millis(projectNanos), projectTimings.size(), cachedCount));
+			writer.println();
+			writer.println("Slowest projects");
+			writer.println();
+			for (ProjectTiming timing : slowest.subList(0, Math.min(SLOWEST_PROJECTS, slowest.size()))) {
+				writer.println(String.format(Locale.ROOT, "%10s  %-30s %-20s %6d refs %6d versions%s", millis(timing.nanos), timing.project, timing.version, timing.refsScanned, timing.matchedVersions, timing.cached ? "  (cached)" : ""));
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f ms", nanos / 1000000.0);
+	}
+
+	private static boolean isJfrAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, VersionTimings.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	static final class Probe {
+
+		private final long startNanos;
+
+		private final Object event;
+
+		private Probe(Object event) {
+			super();
+			this.event = event;
+			this.startNanos = System.nanoTime();
+		}
+
+		long elapsed() {
+			return System.nanoTime() - startNanos;
+		}
+	}
+
+	private static final class ProjectTiming {
+
+		private final String project;
+
+		private final long nanos;
+
+		private final int refsScanned;
+
+		private final int matchedVersions;
+
+		private final String version;
+
+		private final boolean cached;
+
+		ProjectTiming(String project, long nanos, int refsScanned, int matchedVersions, String version, boolean cached) {
+			super();
+			this.project = project;
+			this.nanos = nanos;
+			this.refsScanned = refsScanned;
+			this.matchedVersions = matchedVersions;
+			this.version = version;
+			this.cached = cached;
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BundleAnalysisCacheTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Manifest manifest(String version) {
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.put(BundleAnalysisCache.BUNDLE_VERSION, version);
+		attributes.put(BundleAnalysisCache.EXPORT_PACKAGE, "my.cool.lib;version=\"" + version + "\";uses:=\"org.apache\",my.cool.lib.util;version=" + version);
+		attributes.putValue("Import-Package", "org.apache.commons.collections;version=\"[3.2,4)\"");
+		return manifest;
+	}
+
+	@Test
+	public void testVersionOnlyChange() throws IOException {
+		BundleAnalysisCache cache = new BundleAnalysisCache(new File(folder.getRoot(), "tmp/jar/bundle-analysis.mf"));
+		cache.store("abc", "1.3.0.DEV", manifest("1.3.0.DEV"));
+
+		assertEquals(manifest("1.3.0.DEV"), cache.load("abc", "1.3.0.DEV"));
+		assertEquals(manifest("1.4.0.DEV"), cache.load("abc", "1.4.0.DEV"));
+		assertNull(cache.load("def", "1.3.0.DEV"));
+	}
+
+	@Test
+	public void testReplaceVersion() {
+		assertEquals("a;version=\"2.0\",b;version=2.0", BundleAnalysisCache.replaceVersion("a;version=\"1.0\",b;version=1.0", "1.0", "2.0"));
+		assertEquals("a;version=\"1.0.1\";x-version=1.0,b; version=2.0", BundleAnalysisCache.replaceVersion("a;version=\"1.0.1\";x-version=1.0,b; version=1.0", "1.0", "2.0"));
+	}
+
+	@Test
+	public void testFingerprint() throws IOException {
+		File classes = folder.newFolder("classes");
+		File classFile = new File(classes, "my/cool/lib/CoolLib.class");
+		classFile.getParentFile().mkdirs();
+		Files.write(classFile.toPath(), "version 1".getBytes(UTF_8));
+		String first = new BundleAnalysisCache.Fingerprint().add("lib").addTree(classes, true).finish();
+		assertEquals(first, new BundleAnalysisCache.Fingerprint().add("lib").addTree(classes, true).finish());
+
+		Files.write(classFile.toPath(), "version 2".getBytes(UTF_8));
+		assertFalse(first.equals(new BundleAnalysisCache.Fingerprint().add("lib").addTree(classes, true).finish()));
+		assertFalse(first.equals(new BundleAnalysisCache.Fingerprint().add(null).addTree(classes, true).finish()));
+	}
+
+}
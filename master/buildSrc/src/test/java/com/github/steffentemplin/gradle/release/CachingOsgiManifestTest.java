@@ -0,0 +1,48 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.Attributes;
+
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.java.archives.Manifest;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachingOsgiManifestTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testWriteCachedManifestToPath() throws IOException {
+		java.util.jar.Manifest cached = new java.util.jar.Manifest();
+		cached.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		cached.getMainAttributes().put(BundleAnalysisCache.BUNDLE_VERSION, "1.3.0.DEV");
+		Attributes section = new Attributes();
+		section.putValue("Sealed", "true");
+		cached.getEntries().put("my/cool/lib/", section);
+
+		ProjectInternal project = (ProjectInternal) ProjectBuilder.builder().withProjectDir(folder.newFolder("project")).build();
+		Manifest manifest = CachingOsgiManifest.toManifest(cached, project.getFileResolver());
+		// relative paths are resolved against the project directory
+		manifest.writeTo("MANIFEST.MF");
+
+		java.util.jar.Manifest written = new java.util.jar.Manifest();
+		InputStream in = new FileInputStream(new File(project.getProjectDir(), "MANIFEST.MF"));
+		try {
+			written.read(in);
+		} finally {
+			in.close();
+		}
+
+		assertEquals(cached, written);
+	}
+
+}
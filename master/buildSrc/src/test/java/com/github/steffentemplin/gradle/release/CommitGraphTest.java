@@ -0,0 +1,249 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CommitGraphTest {
+
+	private static final PersonIdent AUTHOR = new PersonIdent("Release", "release@example.com", 0, 0);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Git git;
+
+	private Repository repository;
+
+	private ObjectId emptyTree;
+
+	@Before
+	public void setUp() throws Exception {
+		git = Git.init().setDirectory(folder.newFolder("repo")).call();
+		repository = git.getRepository();
+		ObjectInserter inserter = repository.newObjectInserter();
+		try {
+			emptyTree = inserter.insert(Constants.OBJ_TREE, new byte[0]);
+			inserter.flush();
+		} finally {
+			inserter.release();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		git.close();
+	}
+
+	private ObjectId commit(ObjectId... parents) throws IOException {
+		ObjectInserter inserter = repository.newObjectInserter();
+		try {
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(emptyTree);
+			commit.setParentIds(parents);
+			commit.setAuthor(AUTHOR);
+			commit.setCommitter(AUTHOR);
+			// distinct commits with identical parents
+			commit.setMessage(String.valueOf(System.nanoTime()));
+			ObjectId id = inserter.insert(commit);
+			inserter.flush();
+			return id;
+		} finally {
+			inserter.release();
+		}
+	}
+
+	private void tag(String name, ObjectId commit, boolean annotated) throws IOException {
+		ObjectId target = commit;
+		if (annotated) {
+			ObjectInserter inserter = repository.newObjectInserter();
+			try {
+				TagBuilder tag = new TagBuilder();
+				tag.setTag(name);
+				tag.setObjectId(commit, Constants.OBJ_COMMIT);
+				tag.setTagger(AUTHOR);
+				target = inserter.insert(tag);
+				inserter.flush();
+			} finally {
+				inserter.release();
+			}
+		}
+
+		setRef(Constants.R_TAGS + name, target);
+	}
+
+	private void setRef(String name, ObjectId id) throws IOException {
+		RefUpdate update = repository.updateRef(name);
+		update.setNewObjectId(id);
+		update.setForceUpdate(true);
+		update.update();
+	}
+
+	private void checkout(ObjectId commit) throws IOException {
+		RefUpdate update = repository.updateRef(Constants.HEAD, true);
+		update.setNewObjectId(commit);
+		update.setForceUpdate(true);
+		update.update();
+	}
+
+	private ReleaseHistory history() {
+		return new ReleaseHistory(repository, new FileRefNameSource(repository.getDirectory()), new File(folder.getRoot(), "commit-graph.bin"));
+	}
+
+	private CommitGraph build(List<ObjectId> tips, CommitGraph graph) throws IOException {
+		ObjectReader reader = repository.newObjectReader();
+		try {
+			return graph.update(reader, tips);
+		} finally {
+			reader.release();
+		}
+	}
+
+	@Test
+	public void testLastReachableRelease() throws IOException {
+		ObjectId c1 = commit();
+		ObjectId c2 = commit(c1);
+		ObjectId c3 = commit(c2);
+		ObjectId maintenance = commit(c2);
+		ObjectId unrelated = commit(c1);
+		tag("lib-1.0.0", c1, false);
+		tag("lib-2.0.0", c3, true);
+		tag("lib-1.5.0", maintenance, true);
+		tag("lib-3.0.0", unrelated, false);
+		tag("library-9.0.0", c3, false);
+
+		checkout(c3);
+		ReleaseHistory history = history();
+		assertEquals(Version.parse("2.0.0"), history.getLastRelease("lib"));
+		assertEquals(0, history.getCommitsSinceLastRelease("lib"));
+		assertNull(history.getLastRelease("other"));
+		history.close();
+
+		ObjectId c4 = commit(c3);
+		checkout(commit(c4));
+		history = history();
+		assertEquals(Version.parse("2.0.0"), history.getLastRelease("lib"));
+		assertEquals(2, history.getCommitsSinceLastRelease("lib"));
+		history.close();
+
+		checkout(commit(maintenance));
+		history = history();
+		assertEquals(Version.parse("1.5.0"), history.getLastRelease("lib"));
+		assertEquals(1, history.getCommitsSinceLastRelease("lib"));
+		history.close();
+
+		checkout(commit(c1));
+		assertEquals(Version.parse("1.0.0"), history().getLastRelease("lib"));
+	}
+
+	@Test
+	public void testIgnoresReleasesTooLargeToBeIndexed() throws IOException {
+		ObjectId c1 = commit();
+		tag("lib-1.0.0", c1, false);
+		tag("lib-70000.0.0", c1, false);
+		tag("lib-1.70000.0", c1, true);
+		checkout(c1);
+
+		ReleaseHistory history = history();
+		RefIndex index = new RefIndex(new FileRefNameSource(repository.getDirectory()), Collections.<String>emptyList(), new VersionTimings());
+		// both agree whether or not only reachable releases count
+		assertEquals(Version.parse("1.0.0"), history.getLastRelease("lib"));
+		assertEquals(Version.parse("1.0.0"), index.getLastRelease("lib"));
+		history.close();
+	}
+
+	/**
+	 * Collects the history of a commit by following all parents, without the
+	 * commit time heuristics of a RevWalk.
+	 */
+	private static Set<ObjectId> history(RevWalk walk, ObjectId start) throws IOException {
+		Set<ObjectId> history = new HashSet<ObjectId>();
+		Deque<ObjectId> queue = new ArrayDeque<ObjectId>();
+		queue.add(start);
+		while (!queue.isEmpty()) {
+			ObjectId id = queue.poll();
+			if (history.add(id)) {
+				for (RevCommit parent : walk.parseCommit(id).getParents()) {
+					queue.add(parent.copy());
+				}
+			}
+		}
+
+		return history;
+	}
+
+	@Test
+	public void testMatchesFullHistory() throws IOException {
+		Random random = new Random(42);
+		List<ObjectId> commits = new ArrayList<ObjectId>();
+		commits.add(commit());
+		for (int i = 1; i < 300; i++) {
+			ObjectId first = commits.get(Math.max(0, i - 1 - random.nextInt(5)));
+			if (random.nextInt(4) == 0) {
+				commits.add(commit(first, commits.get(random.nextInt(i))));
+			} else {
+				commits.add(commit(first));
+			}
+		}
+
+		// built in two steps, the second one stops at the known commits
+		CommitGraph graph = build(commits.subList(0, 150), CommitGraph.empty());
+		graph = build(commits, graph);
+		assertEquals(commits.size(), graph.size());
+		assertSame(graph, build(commits.subList(100, 200), graph));
+
+		File file = new File(folder.getRoot(), "graph.bin");
+		graph.store(file, "key");
+		assertEquals(0, CommitGraph.load(file, "other").size());
+		CommitGraph loaded = CommitGraph.load(file, "key");
+
+		RevWalk walk = new RevWalk(repository);
+		try {
+			for (int i = 0; i < 50; i++) {
+				ObjectId head = commits.get(random.nextInt(commits.size()));
+				Set<ObjectId> headHistory = history(walk, head);
+				CommitGraph.Walk headWalk = loaded.walk(loaded.indexOf(head));
+				List<ObjectId> bases = new ArrayList<ObjectId>(commits);
+				Collections.shuffle(bases, random);
+				for (ObjectId base : bases.subList(0, 20)) {
+					assertEquals(headHistory.contains(base), headWalk.reaches(loaded.indexOf(base)));
+					Set<ObjectId> exclusive = new HashSet<ObjectId>(headHistory);
+					exclusive.removeAll(history(walk, base));
+					assertEquals(exclusive.size(), loaded.countExclusive(loaded.indexOf(head), loaded.indexOf(base)));
+				}
+			}
+		} finally {
+			walk.release();
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FileRefNameSourceTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String ID = "0123456789012345678901234567890123456789";
+
+	private static final String PEELED = "^9876543210987654321098765432109876543210\n";
+
+	private static List<String> visit(String packedRefs, String prefix, List<String> looseRefs) {
+		final List<String> names = new ArrayList<String>();
+		int count = FileRefNameSource.visitPackedRefs(ByteBuffer.wrap(packedRefs.getBytes(UTF_8)), prefix.getBytes(UTF_8), looseRefs, new RefNameSource.Visitor() {
+			@Override
+			public void visit(CharSequence refName) {
+				names.add(refName.toString());
+			}
+		});
+		assertEquals(names.size(), count);
+		return names;
+	}
+
+	private static String packedRefs(String header, String... refNames) {
+		StringBuilder sb = new StringBuilder(header);
+		for (String refName : refNames) {
+			sb.append(ID).append(' ').append(refName).append('\n');
+			if (refName.startsWith("refs/tags/")) {
+				sb.append(PEELED);
+			}
+		}
+
+		return sb.toString();
+	}
+
+	@Test
+	public void testSortedPrefixQueries() {
+		List<String> refNames = new ArrayList<String>();
+		for (int i = 0; i < 200; i++) {
+			refNames.add("refs/heads/feature-" + i);
+			refNames.add("refs/remotes/origin/feature-" + i);
+			refNames.add("refs/tags/library-one-1." + i + ".0");
+			refNames.add("refs/tags/library-two-1." + i + ".0");
+		}
+
+		refNames.add("refs/remotes/origin/library-one-release-2.0.0");
+		Collections.sort(refNames);
+		String[] names = refNames.toArray(new String[refNames.size()]);
+		String sorted = packedRefs("# pack-refs with: peeled fully-peeled sorted \n", names);
+		String unsorted = packedRefs("# pack-refs with: peeled \n", names);
+		List<String> none = Collections.emptyList();
+		for (String prefix : Arrays.asList("refs/", "refs/tags/library-one-", "refs/tags/library-one-1.19", "refs/remotes/origin/library-one-release-", "refs/tags/library-three-", "refs/zzz", "a", "")) {
+			List<String> expected = new ArrayList<String>();
+			for (String refName : refNames) {
+				if (refName.startsWith(prefix)) {
+					expected.add(refName);
+				}
+			}
+
+			assertEquals(prefix, expected, visit(sorted, prefix, none));
+			assertEquals(prefix, expected, visit(unsorted, prefix, none));
+		}
+	}
+
+	@Test
+	public void testLooseRefsAreSkipped() {
+		String packedRefs = packedRefs("# pack-refs with: peeled fully-peeled sorted \n", "refs/tags/library-one-1.0.0", "refs/tags/library-one-2.0.0");
+		assertEquals(Collections.singletonList("refs/tags/library-one-1.0.0"), visit(packedRefs, "refs/tags/", Collections.singletonList("refs/tags/library-one-2.0.0")));
+	}
+
+	@Test
+	public void testWithoutHeader() {
+		String packedRefs = ID + " refs/tags/b\r\n" + ID + " refs/tags/a\r\n";
+		assertEquals(Arrays.asList("refs/tags/b", "refs/tags/a"), visit(packedRefs, "refs/tags/", Collections.<String> emptyList()));
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RefIndexTest {
+
+	private static RefIndex index(String... refNames) {
+		return new RefIndex(new ListRefNameSource(refNames), Collections.singletonList("origin"), new VersionTimings());
+	}
+
+	@Test
+	public void testHighestTag() throws IOException {
+		RefIndex index = index("refs/tags/library-one-1.2.0", "refs/tags/library-one-1.10.0", "refs/tags/library-one-1.9.3");
+		assertEquals(Version.parse("1.10.0"), index.getLastRelease("library-one"));
+	}
+
+	@Test
+	public void testProjectNamesWithDashes() throws IOException {
+		RefIndex index = index("refs/tags/library-1.0.0", "refs/tags/library-one-2.0.0", "refs/tags/lib-2-3.0.0");
+		assertEquals(Version.parse("1.0.0"), index.getLastRelease("library"));
+		assertEquals(Version.parse("2.0.0"), index.getLastRelease("library-one"));
+		assertEquals(Version.parse("3.0.0"), index.getLastRelease("lib-2"));
+		assertNull(index.getLastRelease("lib"));
+	}
+
+	@Test
+	public void testQualifiedTag() throws IOException {
+		RefIndex index = index("refs/tags/library-one-1.0.0.beta-2");
+		assertEquals(Version.parse("1.0.0.beta-2"), index.getLastRelease("library-one"));
+	}
+
+	@Test
+	public void testInvalidTags() throws IOException {
+		RefIndex index = index("refs/tags/library-one-01.0.0", "refs/tags/library-one-1.0", "refs/tags/library-one");
+		assertNull(index.getLastRelease("library-one"));
+	}
+
+	@Test
+	public void testVersionsTooLargeToBeIndexed() throws IOException {
+		RefIndex index = index("refs/tags/library-one-1.0.0", "refs/tags/library-one-65536.0.0", "refs/tags/library-one-1.65536.0", "refs/tags/library-one-65535.65535.0");
+		assertEquals(Version.parse("65535.65535.0"), index.getLastRelease("library-one"));
+		assertEquals(2, index.getMatchedVersionCount("library-one"));
+		assertEquals(4, index.getScannedRefCount("library-one"));
+		assertNull(RefIndex.matchVersion("refs/tags/library-one-65536.0.0", 22));
+		assertEquals(Version.parse("1.0.0"), RefIndex.matchVersion("refs/tags/library-one-1.0.0", 22));
+	}
+
+		@Test
+	public void testReleaseBranches() throws IOException {
+		RefIndex index = index("refs/heads/library-one-release-1.1.0", "refs/remotes/origin/library-one-release-1.2.0", "refs/remotes/origin/library-one-hotfix-1.3.1", "refs/remotes/origin/library-two-release-4.0.0");
+		assertEquals(Version.parse("1.2.0"), index.getNextRelease("library-one"));
+		assertEquals(Version.parse("4.0.0"), index.getNextRelease("library-two"));
+		assertNull(index.getLastRelease("library-one"));
+	}
+
+	@Test
+	public void testMatchBranch() {
+		assertEquals(Version.parse("1.2.0"), RefIndex.matchBranch("library-one-release-1.2.0", "library-one", RefIndex.RELEASE_INFIX));
+		assertEquals(Version.parse("1.2.1"), RefIndex.matchBranch("library-one-hotfix-1.2.1", "library-one", RefIndex.HOTFIX_INFIX));
+		assertNull(RefIndex.matchBranch("library-one-hotfix-1.2.1", "library-one", RefIndex.RELEASE_INFIX));
+		assertNull(RefIndex.matchBranch("library-one-release-1.2", "library-one", RefIndex.RELEASE_INFIX));
+		assertNull(RefIndex.matchBranch("develop", "library-one", RefIndex.RELEASE_INFIX));
+	}
+
+	@Test
+	public void testReleaseTagQueries() throws IOException {
+		RefIndex index = index("refs/tags/library-one-3.0.0", "refs/tags/library-one-3.0.1", "refs/tags/library-one-3.1.0", "refs/tags/library-one-4.2.0");
+		VersionIndex tags = index.getReleaseTags("library-one");
+		assertEquals(Version.parse("3.1.0"), tags.lower(Version.parse("4.2.0")));
+		assertEquals(3, tags.line(3).size());
+		assertEquals(0, index.getReleaseTags("library-two").size());
+	}
+
+	@Test
+	public void testScannedRefCount() throws IOException {
+		RefIndex index = index("refs/tags/library-one-1.0.0", "refs/tags/library-one-1.0.0.REL", "refs/tags/library-one-latest", "refs/remotes/origin/library-one-release-1.1.0", "refs/tags/library-two-1.0.0");
+		assertEquals(0, index.getScannedRefCount("library-one"));
+		index.getLastRelease("library-one");
+		assertEquals(3, index.getScannedRefCount("library-one"));
+		assertEquals(2, index.getMatchedVersionCount("library-one"));
+		index.getNextRelease("library-one");
+		assertEquals(4, index.getScannedRefCount("library-one"));
+		assertEquals(3, index.getMatchedVersionCount("library-one"));
+		index.invalidate("refs/tags/library-one-1.1.0");
+		assertEquals(1, index.getScannedRefCount("library-one"));
+	}
+
+	@Test
+	public void testRemotes() throws IOException {
+		ListRefNameSource source = new ListRefNameSource("refs/remotes/origin/library-one-release-1.2.0", "refs/remotes/upstream/library-one-release-1.3.0", "refs/remotes/fork/library-one-release-2.0.0");
+		RefIndex index = new RefIndex(source, Arrays.asList("origin", "upstream"), new VersionTimings());
+		assertEquals(Version.parse("1.3.0"), index.getNextRelease("library-one"));
+		assertEquals(Arrays.asList("refs/remotes/origin/library-one-release-", "refs/remotes/upstream/library-one-release-"), source.prefixes);
+	}
+
+	@Test
+	public void testQueriesAreScopedAndCached() throws IOException {
+		ListRefNameSource source = new ListRefNameSource("refs/tags/library-one-1.0.0", "refs/tags/library-two-1.0.0");
+		RefIndex index = new RefIndex(source, Collections.singletonList("origin"), new VersionTimings());
+		assertEquals(0, index.getMatchedVersionCount("library-one"));
+		assertEquals(Version.parse("1.0.0"), index.getLastRelease("library-one"));
+		assertEquals(Version.parse("1.0.0"), index.getLastRelease("library-one"));
+		assertEquals(Collections.singletonList("refs/tags/library-one-"), source.prefixes);
+		assertEquals(1, index.getMatchedVersionCount("library-one"));
+	}
+
+	@Test
+	public void testInvalidate() throws IOException {
+		ListRefNameSource source = new ListRefNameSource("refs/tags/library-1.0.0", "refs/tags/library-one-1.0.0", "refs/remotes/origin/library-one-release-1.1.0");
+		RefIndex index = new RefIndex(source, Collections.singletonList("origin"), new VersionTimings());
+		index.getLastRelease("library");
+		index.getLastRelease("library-one");
+		index.getNextRelease("library-one");
+		assertEquals(2, index.getMatchedVersionCount("library-one"));
+		index.invalidate("refs/tags/library-one-1.1.0");
+		// may be a tag of either project
+		assertEquals(0, index.getMatchedVersionCount("library"));
+		assertEquals(1, index.getMatchedVersionCount("library-one"));
+		index.invalidate("refs/remotes/upstream/library-one-release-1.2.0");
+		assertEquals(1, index.getMatchedVersionCount("library-one"));
+		index.invalidate("refs/remotes/origin/library-one-release-1.2.0");
+		assertEquals(0, index.getMatchedVersionCount("library-one"));
+		assertEquals(Version.parse("1.0.0"), index.getLastRelease("library"));
+		RefIndex shared = index.withTimings(new VersionTimings());
+		assertEquals(1, shared.getMatchedVersionCount("library"));
+		index.invalidateAll();
+		assertEquals(0, shared.getMatchedVersionCount("library"));
+	}
+
+	@Test
+	public void testInvalidateDuringQuery() throws IOException {
+		final List<RefIndex> indexes = new ArrayList<RefIndex>();
+		ListRefNameSource source = new ListRefNameSource("refs/tags/library-one-1.0.0", "refs/remotes/origin/library-one-release-1.1.0") {
+			@Override
+			public int visit(String prefix, Visitor visitor) {
+				int count = super.visit(prefix, visitor);
+				// the watcher notices a new ref after it was listed
+				indexes.get(0).invalidate(prefix + "2.0.0");
+				return count;
+			}
+		};
+		RefIndex index = new RefIndex(source, Collections.singletonList("origin"), new VersionTimings());
+		indexes.add(index);
+		assertEquals(Version.parse("1.0.0"), index.getLastRelease("library-one"));
+		assertEquals(Version.parse("1.1.0"), index.getNextRelease("library-one"));
+		assertEquals(0, index.getMatchedVersionCount("library-one"));
+
+		indexes.set(0, new RefIndex(source, Collections.singletonList("origin"), new VersionTimings()));
+		index.getLastRelease("library-one");
+		assertEquals(1, index.getMatchedVersionCount("library-one"));
+	}
+
+	@Test
+	public void testReachableRelease() {
+		RefIndex index = index();
+		String head = "0123456789012345678901234567890123456789";
+		index.putReachableRelease("library-one", head, Version.parse("1.0.0"), index.getGeneration());
+		index.putReachableRelease("library-two", head, null, index.getGeneration());
+		assertEquals(Version.parse("1.0.0"), index.getReachableRelease("library-one", head).getVersion());
+		assertNull(index.getReachableRelease("library-two", head).getVersion());
+		assertNull(index.getReachableRelease("library-one", "9876543210987654321098765432109876543210"));
+
+		long generation = index.getGeneration();
+		index.invalidate("refs/tags/library-one-1.1.0");
+		assertNull(index.getReachableRelease("library-one", head));
+		assertEquals(1, index.withTimings(new VersionTimings()).getGeneration() - generation);
+		// resolved before the invalidation
+		index.putReachableRelease("library-one", head, Version.parse("1.0.0"), generation);
+		assertNull(index.getReachableRelease("library-one", head));
+		index.invalidateAll();
+		assertNull(index.getReachableRelease("library-two", head));
+	}
+
+	private static class ListRefNameSource implements RefNameSource {
+
+		private final List<String> refNames;
+
+		private final List<String> prefixes = new ArrayList<String>();
+
+		ListRefNameSource(String... refNames) {
+			super();
+			this.refNames = Arrays.asList(refNames);
+		}
+
+		@Override
+		public int visit(String prefix, Visitor visitor) {
+			prefixes.add(prefix);
+			int count = 0;
+			for (String refName : refNames) {
+				if (refName.startsWith(prefix)) {
+					visitor.visit(refName);
+					count++;
+				}
+			}
+
+			return count;
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TreeIdCacheTest {
+
+	private static final PersonIdent AUTHOR = new PersonIdent("Release", "release@example.com", 0, 0);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Git git;
+
+	private Repository repository;
+
+	private ObjectInserter inserter;
+
+	private ObjectReader reader;
+
+	@Before
+	public void setUp() throws Exception {
+		git = Git.init().setDirectory(folder.newFolder("repo")).call();
+		repository = git.getRepository();
+		inserter = repository.newObjectInserter();
+		reader = repository.newObjectReader();
+	}
+
+	@After
+	public void tearDown() {
+		reader.release();
+		inserter.release();
+		git.close();
+	}
+
+	private ObjectId file(String content) throws IOException {
+		return inserter.insert(Constants.OBJ_BLOB, Constants.encode(content));
+	}
+
+	/**
+	 * Creates a commit with a file {@code lib/Lib.java}, a file {@code app}
+	 * and a directory {@code app-two/src} with the given contents.
+	 */
+	private ObjectId commit(String lib, String app) throws IOException {
+		TreeFormatter libTree = new TreeFormatter();
+		libTree.append("Lib.java", FileMode.REGULAR_FILE, file(lib));
+		TreeFormatter srcTree = new TreeFormatter();
+		srcTree.append("App.java", FileMode.REGULAR_FILE, file(app));
+		TreeFormatter appTree = new TreeFormatter();
+		appTree.append("src", FileMode.TREE, inserter.insert(srcTree));
+		TreeFormatter root = new TreeFormatter();
+		root.append("app", FileMode.REGULAR_FILE, file(app));
+		root.append("app-two", FileMode.TREE, inserter.insert(appTree));
+		root.append("lib", FileMode.TREE, inserter.insert(libTree));
+
+		CommitBuilder commit = new CommitBuilder();
+		commit.setTreeId(inserter.insert(root));
+		commit.setAuthor(AUTHOR);
+		commit.setCommitter(AUTHOR);
+		commit.setMessage(lib + app);
+		ObjectId id = inserter.insert(commit);
+		inserter.flush();
+		return id;
+	}
+
+	private static Properties load(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+
+		return properties;
+	}
+
+	@Test
+	public void testTreeIds() throws IOException {
+		ObjectId release = commit("lib 1", "app 1");
+		ObjectId head = commit("lib 1", "app 2");
+		File file = new File(folder.getRoot(), "tree-id-cache.properties");
+		TreeIdCache cache = TreeIdCache.load(file);
+
+		assertEquals(cache.getTreeId(reader, release, "lib"), cache.getTreeId(reader, head, "lib"));
+		assertFalse(cache.getTreeId(reader, release, "app-two").equals(cache.getTreeId(reader, head, "app-two")));
+		assertEquals(cache.getTreeId(reader, release, "app-two/src"), cache.getTreeId(reader, release, "app-two/src"));
+		assertNotNull(cache.getTreeId(reader, head, ""));
+		// files and missing paths are no project directories
+		assertNull(cache.getTreeId(reader, head, "app"));
+		assertNull(cache.getTreeId(reader, head, "other"));
+
+		cache.store();
+		Properties stored = load(file);
+		assertEquals(8, stored.size());
+		assertEquals("-", stored.getProperty(head.name() + "/other"));
+	}
+
+	@Test
+	public void testOnlyUsedEntriesAreStored() throws IOException {
+		ObjectId release = commit("lib 1", "app 1");
+		ObjectId head = commit("lib 2", "app 1");
+		File file = new File(folder.getRoot(), "tree-id-cache.properties");
+		TreeIdCache cache = TreeIdCache.load(file);
+		ObjectId lib = cache.getTreeId(reader, release, "lib");
+		cache.getTreeId(reader, head, "lib");
+		cache.store();
+
+		// cached entries are used without reading the repository
+		cache = TreeIdCache.load(file);
+		assertEquals(lib, cache.getTreeId(null, release, "lib"));
+		cache.getTreeId(null, head, "lib");
+		assertTrue(file.delete());
+		cache.store();
+		assertFalse("unchanged cache was written", file.exists());
+
+		cache.getTreeId(reader, head, "app-two");
+		cache.store();
+		assertEquals(3, load(file).size());
+	}
+
+	@Test
+	public void testRelativePath() throws IOException {
+		File repositoryDir = folder.newFolder("checkout");
+		assertEquals("library-one", TreeIdCache.relativePath(repositoryDir, folder.newFolder("checkout", "library-one")));
+		assertEquals("master/sub", TreeIdCache.relativePath(repositoryDir, folder.newFolder("checkout", "master", "sub")));
+		assertEquals("", TreeIdCache.relativePath(repositoryDir, repositoryDir));
+	}
+
+}
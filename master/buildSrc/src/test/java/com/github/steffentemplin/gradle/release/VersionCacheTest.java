@@ -0,0 +1,41 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VersionCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File file = new File(folder.getRoot(), "release/version-cache.properties");
+		VersionCache cache = VersionCache.load(file, "abc");
+		cache.put(":library-one", Version.parse("1.3.0.DEV"));
+		cache.store();
+
+		cache = VersionCache.load(file, "abc");
+		assertEquals(Version.parse("1.3.0.DEV"), cache.get(":library-one"));
+		assertNull(cache.get(":library-two"));
+	}
+
+	@Test
+	public void testFingerprintMismatch() throws IOException {
+		File file = new File(folder.getRoot(), "version-cache.properties");
+		VersionCache cache = VersionCache.load(file, "abc");
+		cache.put(":library-one", Version.parse("1.3.0.DEV"));
+		cache.store();
+
+		cache = VersionCache.load(file, "def");
+		assertNull(cache.get(":library-one"));
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class VersionIndexTest {
+
+	private static VersionIndex index(String... versions) {
+		VersionIndex.Builder builder = VersionIndex.builder();
+		for (String version : versions) {
+			builder.add(Version.parse(version));
+		}
+
+		return builder.build();
+	}
+
+	@Test
+	public void testSortedAndDeduplicated() {
+		VersionIndex index = index("2.0.0", "1.0.0", "1.0.0.DEV", "2.0.0", "1.0.0.ALPHA");
+		assertEquals(4, index.size());
+		assertEquals(Version.parse("1.0.0.ALPHA"), index.get(0));
+		assertEquals(Version.parse("1.0.0.DEV"), index.get(1));
+		assertEquals(Version.parse("1.0.0"), index.get(2));
+		assertEquals(Version.parse("2.0.0"), index.last());
+	}
+
+	@Test
+	public void testFloorAndCeiling() {
+		VersionIndex index = index("3.0.0", "3.0.1", "3.1.0", "4.1.2", "4.2.0");
+		assertEquals(Version.parse("4.1.2"), index.lower(Version.parse("4.2.0")));
+		assertEquals(Version.parse("4.2.0"), index.floor(Version.parse("4.2.0")));
+		assertEquals(Version.parse("4.1.2"), index.floor(Version.parse("4.2.0.DEV")));
+		assertEquals(Version.parse("3.1.0"), index.ceiling(Version.parse("3.0.2")));
+		assertEquals(Version.parse("4.2.0"), index.higher(Version.parse("4.1.2")));
+		assertNull(index.higher(Version.parse("4.2.0")));
+		assertNull(index.lower(Version.parse("3.0.0")));
+	}
+
+	@Test
+	public void testContains() {
+		VersionIndex index = index("1.2.3", "1.2.4.REL");
+		assertTrue(index.contains(Version.parse("1.2.4.REL")));
+		assertFalse(index.contains(Version.parse("1.2.4")));
+		assertFalse(index.contains(Version.parse("1.2.3.REL")));
+	}
+
+	@Test
+	public void testQualifiersOutsideOfIndex() {
+		VersionIndex index = index("1.0.0.ALPHA", "1.0.0.DEV", "1.0.0", "1.0.1.DEV");
+		assertEquals(0, index.lowerBound(Version.parse("1.0.0.A")));
+		assertEquals(1, index.lowerBound(Version.parse("1.0.0.BETA")));
+		assertEquals(1, index.upperBound(Version.parse("1.0.0.BETA")));
+		assertEquals(1, index.upperBound(Version.parse("1.0.0.ALPHA")));
+		assertEquals(2, index.lowerBound(Version.parse("1.0.0.ZZZ")));
+		assertEquals(3, index.upperBound(Version.parse("1.0.0")));
+		assertEquals(4, index.upperBound(Version.parse("1.0.1.REL")));
+		assertEquals(Version.parse("1.0.0.DEV"), index.floor(Version.parse("1.0.0.REL")));
+		assertFalse(index.contains(Version.parse("1.0.0.BETA")));
+		assertTrue(index.contains(Version.parse("1.0.1.DEV")));
+	}
+
+	@Test
+	public void testLines() {
+		VersionIndex index = index("2.9.9", "3.0.0", "3.0.1", "3.1.0", "4.0.0");
+		List<Version> line = index.line(3);
+		assertEquals(3, line.size());
+		assertEquals(Version.parse("3.0.0"), line.get(0));
+		assertEquals(Version.parse("3.1.0"), line.get(2));
+		assertEquals(2, index.line(3, 0).size());
+		assertEquals(0, index.line(5).size());
+		assertEquals(2, index.range(Version.parse("3.0.0"), Version.parse("3.1.0")).size());
+	}
+
+	@Test
+	public void testNextFreeMicro() {
+		VersionIndex index = index("3.0.0", "3.0.1", "3.1.0");
+		assertEquals(Version.parse("3.0.2"), index.nextFreeMicro(3, 0));
+		assertEquals(Version.parse("3.1.1"), index.nextFreeMicro(3, 1));
+		assertEquals(Version.parse("3.2.0"), index.nextFreeMicro(3, 2));
+	}
+
+	@Test
+	public void testUnindexableVersion() {
+		VersionIndex.Builder builder = VersionIndex.builder();
+		assertFalse(builder.add(Version.parse("70000.0.0")));
+		assertTrue(builder.build().isEmpty());
+	}
+
+}
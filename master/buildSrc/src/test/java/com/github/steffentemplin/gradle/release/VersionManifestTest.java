@@ -0,0 +1,78 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VersionManifestTest {
+
+	private static final String COMMIT = "0123456789012345678901234567890123456789";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File file = new File(folder.getRoot(), "release/version-manifest.properties");
+		Map<String, Version> versions = new TreeMap<String, Version>();
+		versions.put(":library-one", Version.parse("1.3.0.DEV"));
+		versions.put(":library-two", Version.parse("2.0.0.REL"));
+		VersionManifest.store(file, COMMIT, false, versions);
+
+		VersionManifest manifest = VersionManifest.load(file);
+		assertEquals(COMMIT, manifest.getCommit());
+		assertFalse(manifest.isRelease());
+		assertEquals(Version.parse("1.3.0.DEV"), manifest.getVersion(":library-one"));
+		assertEquals(Version.parse("2.0.0.REL"), manifest.getVersion(":library-two"));
+		assertNull(manifest.getVersion(":library-three"));
+
+		VersionManifest.store(file, COMMIT, true, versions);
+		assertTrue(VersionManifest.load(file).isRelease());
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingCommit() throws IOException {
+		File file = folder.newFile("version-manifest.properties");
+		Files.write(file.toPath(), "version.\\:library-one=1.3.0.DEV\n".getBytes(Charset.forName("UTF-8")));
+		VersionManifest.load(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingReleaseFlag() throws IOException {
+		File file = folder.newFile("version-manifest.properties");
+		Files.write(file.toPath(), ("commit=" + COMMIT + "\nversion.\\:library-one=1.3.0.DEV\n").getBytes(Charset.forName("UTF-8")));
+		VersionManifest.load(file);
+	}
+
+	@Test
+	public void testHeadCommit() throws IOException {
+		File gitDir = folder.newFolder(".git");
+		Charset utf8 = Charset.forName("UTF-8");
+		Files.write(new File(gitDir, "HEAD").toPath(), "ref: refs/heads/develop\n".getBytes(utf8));
+		assertNull(RefState.readHeadCommit(gitDir));
+
+		Files.write(new File(gitDir, "packed-refs").toPath(), ("# pack-refs with: peeled fully-peeled sorted \n" + COMMIT + " refs/heads/develop\n").getBytes(utf8));
+		assertEquals(COMMIT, RefState.readHeadCommit(gitDir));
+
+		String looseCommit = "9876543210987654321098765432109876543210";
+		new File(gitDir, "refs/heads").mkdirs();
+		Files.write(new File(gitDir, "refs/heads/develop").toPath(), (looseCommit + "\n").getBytes(utf8));
+		assertEquals(looseCommit, RefState.readHeadCommit(gitDir));
+
+		Files.write(new File(gitDir, "HEAD").toPath(), (COMMIT + "\n").getBytes(utf8));
+		assertEquals(COMMIT, RefState.readHeadCommit(gitDir));
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VersionRangeTest {
+
+	private static Version v(String version) {
+		return Version.parse(version);
+	}
+
+	@Test
+	public void testParse() {
+		VersionRange range = VersionRange.parse("[1.2,2.0)");
+		assertEquals(v("1.2.0"), range.getLow());
+		assertTrue(range.isLowInclusive());
+		assertEquals(v("2.0.0"), range.getHigh());
+		assertFalse(range.isHighInclusive());
+		assertEquals("[1.2.0,2.0.0)", range.toString());
+
+		range = VersionRange.parse(" ( 1 , 1.5.0.REL ] ");
+		assertEquals(v("1.0.0"), range.getLow());
+		assertFalse(range.isLowInclusive());
+		assertEquals(v("1.5.0.REL"), range.getHigh());
+		assertTrue(range.isHighInclusive());
+
+		range = VersionRange.parse("1.2.3.DEV");
+		assertEquals(VersionRange.atLeast(v("1.2.3.DEV")), range);
+		assertNull(range.getHigh());
+		assertEquals(range, VersionRange.parse(range.toString()));
+		assertEquals(VersionRange.parse("(1.0,)"), VersionRange.parse(VersionRange.parse("(1.0,)").toString()));
+	}
+
+	@Test
+	public void testInvalid() {
+		for (String range : Arrays.asList("", "[1.0,2.0", "[1.0]", "1.2.DEV", "[1.0,2.0,3.0)", "[,2.0)", "a")) {
+			try {
+				VersionRange.parse(range);
+				throw new AssertionError("Parsed invalid range " + range);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testIncludes() {
+		VersionRange range = VersionRange.parse("[1.2,2.0)");
+		assertTrue(range.includes(v("1.2.0")));
+		assertTrue(range.includes(v("1.9.99")));
+		assertTrue(range.includes(v("1.2.0.DEV")));
+		assertTrue(range.includes(v("1.2.0.REL")));
+		assertFalse(range.includes(v("1.1.9.REL")));
+		assertFalse(range.includes(v("2.0.0.DEV")));
+		assertFalse(range.includes(v("2.0.0.REL")));
+		assertFalse(range.includes(v("2.0.0")));
+
+		range = VersionRange.parse("(1.2,2.0]");
+		assertFalse(range.includes(v("1.2.0.REL")));
+		assertFalse(range.includes(v("1.2.0")));
+		assertTrue(range.includes(v("2.0.0.DEV")));
+		assertTrue(range.includes(v("2.0.0.REL")));
+		assertTrue(range.includes(v("2.0.0")));
+
+		range = VersionRange.parse("[1.2.0.REL,2.0.0.DEV)");
+		assertFalse(range.includes(v("1.2.0.DEV")));
+		assertTrue(range.includes(v("1.2.0.REL")));
+		assertTrue(range.includes(v("1.2.0")));
+		assertFalse(range.includes(v("2.0.0.DEV")));
+		assertTrue(VersionRange.parse("1.0").includes(v("70000.0.0")));
+	}
+
+	@Test
+	public void testIsEmpty() {
+		assertTrue(VersionRange.parse("(1.0,1.0]").isEmpty());
+		assertTrue(VersionRange.parse("[1.0,1.0)").isEmpty());
+		assertFalse(VersionRange.parse("[1.0,1.0]").isEmpty());
+		assertTrue(VersionRange.parse("[1.0.0.REL,1.0)").isEmpty());
+		assertFalse(VersionRange.parse("[1.0.0.REL,1.0]").isEmpty());
+		assertFalse(VersionRange.parse("[1.0,1.0.0.DEV]").isEmpty());
+		assertTrue(VersionRange.parse("(1.0,1.0.0.REL]").isEmpty());
+		assertTrue(VersionRange.parse("(1.0.0.REL,1.0.0.DEV]").isEmpty());
+		assertFalse(VersionRange.parse("[1.0.0.DEV,1.0.0.REL]").isEmpty());
+		assertTrue(VersionRange.parse("[2.0,1.0]").isEmpty());
+	}
+
+	@Test
+	public void testReleaseBoundaries() {
+		List<Version> releases = Arrays.asList(v("1.2.0.REL"), v("1.3.0.REL"), v("2.0.0.DEV"), v("2.0.0.REL"));
+		VersionIndex.Builder builder = VersionIndex.builder();
+		for (Version release : releases) {
+			builder.add(release);
+		}
+
+		VersionIndex index = builder.build();
+		VersionRange range = VersionRange.parse("[1.2,2.0)");
+		assertEquals(Arrays.asList(v("1.2.0.REL"), v("1.3.0.REL")), range.filter(releases));
+		assertEquals(Arrays.asList(v("1.2.0.REL"), v("1.3.0.REL")), range.filter(index));
+		assertEquals(v("1.3.0.REL"), range.highest(index));
+		range = VersionRange.parse("(1.2,2.0]");
+		assertEquals(Arrays.asList(v("1.3.0.REL"), v("2.0.0.DEV"), v("2.0.0.REL")), range.filter(releases));
+		assertEquals(Arrays.asList(v("1.3.0.REL"), v("2.0.0.DEV"), v("2.0.0.REL")), range.filter(index));
+	}
+
+	@Test
+	public void testQualifiedBoundaries() {
+		VersionIndex.Builder builder = VersionIndex.builder();
+		for (String version : Arrays.asList("1.0.0.DEV", "1.0.0.REL", "1.0.0", "2.0.0.DEV", "2.0.0.REL", "2.0.0")) {
+			builder.add(v(version));
+		}
+
+		VersionIndex index = builder.build();
+		assertEquals(Arrays.asList(v("1.0.0.DEV"), v("1.0.0.REL"), v("1.0.0")), VersionRange.parse("[1.0,2.0)").filter(index));
+		assertEquals(Arrays.asList(), VersionRange.parse("(1.0,2.0)").filter(index));
+		assertEquals(Arrays.asList(v("2.0.0.DEV"), v("2.0.0.REL"), v("2.0.0")), VersionRange.parse("(1.0,2.0]").filter(index));
+		assertEquals(6, VersionRange.parse("[1.0,2.0]").filter(index).size());
+		assertEquals(Arrays.asList(v("1.0.0.DEV"), v("1.0.0.REL"), v("1.0.0")), VersionRange.parse("[1.0.0.DEV,2.0.0.DEV)").filter(index));
+		assertEquals(Arrays.asList(v("1.0.0.REL"), v("1.0.0"), v("2.0.0.DEV")), VersionRange.parse("(1.0.0.DEV,2.0.0.DEV]").filter(index));
+		assertEquals(Arrays.asList(v("1.0.0.REL")), VersionRange.parse("[1.0.0.REL,1.0.0.REL]").filter(index));
+		assertEquals(v("1.0.0"), VersionRange.parse("[1.0,2.0)").highest(index));
+		assertNull(VersionRange.parse("(1.0.0.REL,1.0)").highest(index));
+	}
+
+	@Test
+	public void testIndexMatchesCollection() {
+		Random random = new Random(42);
+		List<Version> versions = new ArrayList<Version>();
+		VersionIndex.Builder builder = VersionIndex.builder();
+		String[] qualifiers = { null, "DEV", "REL" };
+		for (int i = 0; i < 500; i++) {
+			Version version = new Version(random.nextInt(4), random.nextInt(4), random.nextInt(4), qualifiers[random.nextInt(qualifiers.length)]);
+			versions.add(version);
+			builder.add(version);
+		}
+
+		VersionIndex index = builder.build();
+		List<Version> sorted = new ArrayList<Version>();
+		for (int i = 0; i < index.size(); i++) {
+			sorted.add(index.get(i));
+		}
+
+		List<VersionRange> ranges = Arrays.asList(VersionRange.parse("[1.2,2.0)"), VersionRange.parse("(1.2.3,1.2.3]"), VersionRange.parse("(0.3.1.DEV,3.1.2.REL]"), VersionRange.parse("2"), VersionRange.parse("[3.0,70000.0)"), VersionRange.parse("(1.2,2.0]"), VersionRange.parse("[1.2.0.REL,1.3)"), VersionRange.parse("(1.1,1.1.1.DEV]"));
+		int[] bounds = VersionRange.bounds(index, ranges);
+		for (int i = 0; i < ranges.size(); i++) {
+			VersionRange range = ranges.get(i);
+			List<Version> expected = range.filter(sorted);
+			assertEquals(range.toString(), expected, range.filter(index));
+			if (range.isEmpty()) {
+				assertTrue(range.toString(), expected.isEmpty());
+			}
+			assertEquals(range.toString(), expected.size(), bounds[2 * i + 1] - bounds[2 * i]);
+			assertEquals(range.toString(), expected.isEmpty() ? null : expected.get(expected.size() - 1), range.highest(index));
+		}
+	}
+
+	@Test
+	public void testUnindexableBounds() {
+		VersionIndex.Builder builder = VersionIndex.builder();
+		builder.add(v("1.0.0"));
+		builder.add(v("2.0.0"));
+		VersionIndex index = builder.build();
+		assertArrayEquals(new int[] { 1, 2, 2, 2 }, VersionRange.bounds(index, Arrays.asList(VersionRange.parse("[1.70000,70000.0)"), VersionRange.parse("70000"))));
+	}
+
+}
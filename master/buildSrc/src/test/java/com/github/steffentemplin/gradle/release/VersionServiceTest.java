@@ -0,0 +1,105 @@
+package com.github.steffentemplin.gradle.release;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VersionServiceTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String COMMIT = "0123456789012345678901234567890123456789\n";
+
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(UTF_8));
+	}
+
+	/**
+	 * Starts builds until the given project has no queried refs, i.e. the
+	 * file system reported the change of one of its refs.
+	 */
+	private static RefIndex awaitInvalidation(VersionService service, String project) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (true) {
+			service.buildStarted();
+			RefIndex index = service.getRefIndex(Collections.<String>emptyList(), new VersionTimings());
+			if (index.getMatchedVersionCount(project) == 0 || System.currentTimeMillis() > deadline) {
+				return index;
+			}
+
+			service.buildFinished();
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testChangeBeforeBuildIsSeen() throws Exception {
+		File gitDir = folder.newFolder(".git");
+		write(new File(gitDir, "HEAD"), "ref: refs/heads/develop\n");
+		write(new File(gitDir, "config"), "[core]\n");
+		write(new File(gitDir, "refs/tags/library-one-1.0.0"), COMMIT);
+		VersionService service = VersionService.get(gitDir);
+		assumeNotNull(service);
+
+		service.buildStarted();
+		assertFalse(service.isWarm());
+		RefIndex index = service.getRefIndex(Collections.<String>emptyList(), new VersionTimings());
+		assertEquals(Version.parse("1.0.0"), index.getLastRelease("library-one"));
+		assertEquals("develop", service.getCurrentBranch());
+		service.buildFinished();
+		assertTrue(service.isWarm());
+
+		write(new File(gitDir, "refs/tags/library-one-1.1.0"), COMMIT);
+		write(new File(gitDir, "HEAD"), "ref: refs/heads/master\n");
+		index = awaitInvalidation(service, "library-one");
+		assertEquals(Version.parse("1.1.0"), index.getLastRelease("library-one"));
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!"master".equals(service.getCurrentBranch()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			service.buildStarted();
+		}
+
+		assertEquals("master", service.getCurrentBranch());
+	}
+
+	@Test
+	public void testOnlyChangedProjectIsInvalidated() throws Exception {
+		File gitDir = folder.newFolder(".git");
+		write(new File(gitDir, "HEAD"), "ref: refs/heads/develop\n");
+		write(new File(gitDir, "config"), "[core]\n");
+		write(new File(gitDir, "refs/tags/library-one-1.0.0"), COMMIT);
+		write(new File(gitDir, "refs/tags/library-two-2.0.0"), COMMIT);
+		VersionService service = VersionService.get(gitDir);
+		assumeNotNull(service);
+
+		service.buildStarted();
+		RefIndex index = service.getRefIndex(Collections.<String>emptyList(), new VersionTimings());
+		assertEquals(Version.parse("1.0.0"), index.getLastRelease("library-one"));
+		assertEquals(Version.parse("2.0.0"), index.getLastRelease("library-two"));
+		service.buildFinished();
+
+		write(new File(gitDir, "refs/tags/library-one-1.1.0"), COMMIT);
+		index = awaitInvalidation(service, "library-one");
+		assertEquals(0, index.getMatchedVersionCount("library-one"));
+		assertEquals(1, index.getMatchedVersionCount("library-two"));
+		assertEquals(Version.parse("1.1.0"), index.getLastRelease("library-one"));
+	}
+
+}
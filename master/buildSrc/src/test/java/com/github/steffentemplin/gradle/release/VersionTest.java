@@ -1,9 +1,15 @@
 package com.github.steffentemplin.gradle.release;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
+import java.util.regex.Pattern;
+
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -119,5 +125,95 @@ public class VersionTest {
 	public void testQualifierPrecedence() {
 		assertTrue(Version.parse("1.6.9.REL").compareTo(Version.parse("1.6.9.DEV")) > 0);
 	}
+	
+	@Test
+	public void testInvalidVersion10() {
+		thrown.expect(IllegalArgumentException.class);
+		Version.parse("1.2.2147483648");
+	}
+	
+	@Test
+	public void testInvalidVersion11() {
+		thrown.expect(IllegalArgumentException.class);
+		Version.parse("1.2.3.SNAP+SHOT");
+	}
+	
+	@Test
+	public void testQualifierCharacters() {
+		Version version = Version.parse("1.2.3.rc-1_a.B");
+		assertEquals("rc-1_a.B", version.getQualifier());
+		assertEquals("1.2.3.rc-1_a.B", version.toString());
+	}
+	
+	@Test
+	public void testParseRange() {
+		String tagName = "library-one-1.2.3.REL";
+		Version version = Version.parse(tagName, 12, tagName.length());
+		assertEquals(Version.parse("1.2.3.REL"), version);
+		assertNull(Version.tryParse(tagName, 11));
+	}
+	
+	@Test
+	public void testHashCode() {
+		assertEquals(Version.parse("1.2.3.DEV").hashCode(), new Version(1, 2, 3, "DEV").hashCode());
+		assertEquals(Version.parse("1.2.3").hashCode(), new Version(1, 2, 3, null).hashCode());
+		assertFalse(Version.parse("1.2.3").equals(Version.parse("1.2.3.DEV")));
+	}
+	
+	@Test
+	public void testScannerMatchesPattern() {
+		Pattern pattern = Pattern.compile(Version.VERSION_PATTERN);
+		char[] alphabet = "0123456789..-_aZ+".toCharArray();
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			char[] chars = new char[1 + random.nextInt(10)];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = alphabet[random.nextInt(alphabet.length)];
+			}
+			
+			String versionString = new String(chars);
+			boolean valid = Version.tryParse(versionString, 0) != null;
+			assertEquals(versionString, pattern.matcher(versionString).matches(), valid);
+		}
+	}
+	
+	@Test
+	public void testWithNextMinor() {
+		Version version = Version.parse("1.6.9.REL");
+		Version next = version.withNextMinor();
+		assertEquals("1.7.0.REL", next.toString());
+		assertEquals("1.6.9.REL", version.toString());
+	}
+	
+	@Test
+	public void testWithQualifier() {
+		Version version = Version.parse("1.6.9.REL");
+		assertEquals("1.6.9.DEV", version.withQualifier("DEV").toString());
+		assertEquals("1.6.9", version.withQualifier(null).toString());
+		assertSame(version, version.withQualifier("REL"));
+	}
+	
+	@Test
+	public void testIntern() {
+		Version version = new Version(4, 2, 0, "DEV");
+		Version other = Version.parse("4.2.0.DEV");
+		assertNotSame(version, other);
+		assertSame(version.intern(), other.intern());
+	}
+	
+	@Test
+	public void testLargeComponentComparison() {
+		assertEquals(Version.NO_KEY, Version.parse("70000.0.0").getKey());
+		assertTrue(Version.parse("70000.0.0").compareTo(Version.parse("65535.9.9")) > 0);
+		assertTrue(Version.parse("1.70000.0").compareTo(Version.parse("1.65535.0")) > 0);
+		assertTrue(Version.parse("1.2.2147483647").compareTo(Version.parse("1.3.0")) < 0);
+		assertEquals(Version.parse("70000.1.2.DEV"), new Version(70000, 1, 2, "DEV"));
+	}
+	
+	@Test
+	public void testKeyOrder() {
+		assertTrue(Version.parse("1.65535.2147483647").getKey() < Version.parse("2.0.0").getKey());
+		assertTrue(Version.parse("0.0.1").getKey() > Version.parse("0.0.0").getKey());
+	}
 
 }